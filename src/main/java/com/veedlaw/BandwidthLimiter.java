@@ -0,0 +1,231 @@
+package com.veedlaw;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the bandwidth of downloads with a hierarchy of token buckets: one shared by the whole process, one per
+ * crawl and one per host of a crawl. Every transfer is accounted in all three and waits for the slowest.
+ * Transfers are accounted in chunks of CHUNK_SIZE bytes by ThrottledInputStream, so the buckets are locked once per
+ * chunk rather than once per byte. Crawls running side by side may share their host buckets, see sharingHosts.
+ * All limits may be changed while downloads are running.
+ * Limits may be given as system properties, see fromSystemProperties.
+ */
+public class BandwidthLimiter
+{
+    public static final int CHUNK_SIZE = 16 * 1024;
+
+    private static final String PROPERTY_PREFIX = "jget.bandwidth.";
+    // Waits are split so that a raised limit is noticed soon.
+    private static final long MAX_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final TokenBucket global = new TokenBucket(parseRate(System.getProperty(PROPERTY_PREFIX + "global")));
+
+    /**
+     * The buckets of the hosts and their limit, which several limiters may share.
+     */
+    private static final class Hosts
+    {
+        private volatile long rate;
+        private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+        /**
+         * @param rate  Bytes per second from each host, or TokenBucket.UNLIMITED.
+         */
+        private Hosts(long rate)
+        {
+            this.rate = rate;
+        }
+    }
+
+    private final TokenBucket crawl;
+    private final Hosts hosts;
+
+    /**
+     * @param crawlRate Bytes per second of the whole crawl, or TokenBucket.UNLIMITED.
+     * @param hostRate  Bytes per second from each host, or TokenBucket.UNLIMITED.
+     */
+    public BandwidthLimiter(long crawlRate, long hostRate)
+    {
+        this(crawlRate, new Hosts(hostRate));
+    }
+
+    /**
+     * @param crawlRate Bytes per second of the whole crawl, or TokenBucket.UNLIMITED.
+     * @param hosts     Host buckets of the limiter.
+     */
+    private BandwidthLimiter(long crawlRate, Hosts hosts)
+    {
+        this.crawl = new TokenBucket(crawlRate);
+        this.hosts = hosts;
+    }
+
+    /**
+     * @return A limiter with the same crawl and host limits, whose buckets are full and which has seen no hosts yet.
+     */
+    public BandwidthLimiter copy()
+    {
+        return new BandwidthLimiter(getCrawlLimit(), getHostLimit());
+    }
+
+    /**
+     * Used by crawls running side by side which may visit the same hosts, so that every host is limited once for
+     * all of them rather than once per crawl.
+     * @return A limiter with the same crawl limit and a full crawl bucket of its own, which shares the host buckets
+     *         and the host limit of this one.
+     */
+    public BandwidthLimiter sharingHosts()
+    {
+        return new BandwidthLimiter(getCrawlLimit(), hosts);
+    }
+
+    /**
+     * Reads the limits from the system properties jget.bandwidth.crawl and jget.bandwidth.host, in bytes per second
+     * with an optional K, M or G suffix. The global limit is read once from jget.bandwidth.global.
+     * @return A limiter with the configured limits.
+     */
+    public static BandwidthLimiter fromSystemProperties()
+    {
+        return new BandwidthLimiter(parseRate(System.getProperty(PROPERTY_PREFIX + "crawl")),
+                parseRate(System.getProperty(PROPERTY_PREFIX + "host")));
+    }
+
+    /**
+     * Parses a rate such as "512K" bytes per second.
+     * @param rate  Rate string; null, empty or "0" mean no limit.
+     * @return      Bytes per second, or TokenBucket.UNLIMITED.
+     */
+    public static long parseRate(String rate)
+    {
+        if (rate == null || rate.isBlank())
+        {
+            return TokenBucket.UNLIMITED;
+        }
+        long bytes = CrawlBudget.parseSize(rate);
+        return bytes <= 0 ? TokenBucket.UNLIMITED : bytes;
+    }
+
+    /**
+     * Formats a rate the way parseRate reads it.
+     * @param rate  Bytes per second, or TokenBucket.UNLIMITED.
+     * @return      The rate with the largest suffix that divides it, or an empty string for no limit.
+     */
+    public static String formatRate(long rate)
+    {
+        if (rate == TokenBucket.UNLIMITED)
+        {
+            return "";
+        }
+        String[] suffixes = {"G", "M", "K"};
+        for (int i = 0; i < suffixes.length; i++)
+        {
+            long unit = 1L << (10 * (3 - i));
+            if (rate % unit == 0)
+            {
+                return rate / unit + suffixes[i];
+            }
+        }
+        return String.valueOf(rate);
+    }
+
+    /**
+     * @param rate  Bytes per second of all downloads of the process, or TokenBucket.UNLIMITED.
+     */
+    public static void setGlobalLimit(long rate)
+    {
+        global.setRate(rate);
+    }
+
+    /**
+     * @return Bytes per second of all downloads of the process, or TokenBucket.UNLIMITED.
+     */
+    public static long getGlobalLimit()
+    {
+        return global.getRate();
+    }
+
+    /**
+     * @param rate  Bytes per second of the whole crawl, or TokenBucket.UNLIMITED.
+     */
+    public void setCrawlLimit(long rate)
+    {
+        crawl.setRate(rate);
+    }
+
+    /**
+     * @return Bytes per second of the whole crawl, or TokenBucket.UNLIMITED.
+     */
+    public long getCrawlLimit()
+    {
+        return crawl.getRate();
+    }
+
+    /**
+     * @param rate  Bytes per second from each host, or TokenBucket.UNLIMITED.
+     */
+    public void setHostLimit(long rate)
+    {
+        hosts.rate = rate;
+        for (TokenBucket bucket : hosts.buckets.values())
+        {
+            bucket.setRate(rate);
+        }
+    }
+
+    /**
+     * @return Bytes per second from each host, or TokenBucket.UNLIMITED.
+     */
+    public long getHostLimit()
+    {
+        return hosts.rate;
+    }
+
+    /**
+     * Wraps a response stream so that reading from it obeys the limits.
+     * @param in    Response body.
+     * @param host  Host (and port) the response comes from.
+     * @return      The throttled stream.
+     */
+    public InputStream throttle(InputStream in, String host)
+    {
+        return new ThrottledInputStream(in, this, host);
+    }
+
+    /**
+     * Accounts transferred bytes in every bucket and waits until all of them are out of debt.
+     * @param host  Host the bytes came from.
+     * @param bytes Number of bytes.
+     * @throws InterruptedIOException If the thread is interrupted while waiting.
+     */
+    void consume(String host, long bytes) throws InterruptedIOException
+    {
+        long hostRate = hosts.rate;
+        TokenBucket hostBucket = hostRate == TokenBucket.UNLIMITED && hosts.buckets.isEmpty()
+                ? null
+                : hosts.buckets.computeIfAbsent(host, key -> new TokenBucket(hostRate));
+        global.take(bytes);
+        crawl.take(bytes);
+        if (hostBucket != null)
+        {
+            hostBucket.take(bytes);
+        }
+
+        long wait;
+        while ((wait = Math.max(Math.max(global.getWaitNanos(), crawl.getWaitNanos()),
+                hostBucket == null ? 0 : hostBucket.getWaitNanos())) > 0)
+        {
+            try
+            {
+                TimeUnit.NANOSECONDS.sleep(Math.min(wait, MAX_SLEEP_NANOS));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling the download");
+            }
+        }
+    }
+}
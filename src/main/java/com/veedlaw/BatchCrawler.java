@@ -0,0 +1,611 @@
+package com.veedlaw;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Crawls many sites together with one shared pool of worker threads.
+ * The sites are read from a seed file, each with its own download directory, scope and weight. A crawl is worked on
+ * by one worker at a time, one address per step, and the workers always take the site with the smallest virtual
+ * time, which grows by the bytes of every step divided by the weight of the site (weighted fair queuing). A large
+ * site thus can not starve small ones, and the workers keep busy as long as any site has work, so the batch takes
+ * about as long as its bytes take at the available bandwidth rather than as long as its slowest sites one by one.
+ * Only a limited number of sites is crawled at once; the rest wait for a free slot, so that open files and memory
+ * stay bounded, and a finished site keeps only its totals. Sites joining later start at the current virtual time
+ * instead of catching up.
+ * The bandwidth of the whole batch is limited by the global bandwidth limit, every site also obeys jget.bandwidth.crawl
+ * and each host obeys jget.bandwidth.host across all sites of the batch, so that sites on the same host do not
+ * multiply its limit. Of the limits set in the bandwidth dialog of the GUI, only the global one applies to a batch;
+ * the others belong to the single download. The crawl budget given by the system properties applies to every site
+ * separately.
+ */
+public class BatchCrawler
+{
+    public static final int DEFAULT_WORKERS = 16;
+
+    private static final int SITES_PER_WORKER = 4; // Number of sites crawled at once, per worker
+    private static final long MIN_STEP_COST = 16 * 1024; // Failed and tiny downloads cost as much as this many bytes
+    private static final String DEFAULT = "-"; // Placeholder for a default column of the seed file
+
+    /**
+     * A site of the batch: its seed file entry and the progress of its crawl.
+     */
+    public static final class Site
+    {
+        private final String seed;
+        private final String dir;
+        private final Crawl.Scope scope;
+        private final String scopePrefix;
+        private final double weight;
+
+        private Crawl crawl; // Set while the site is crawled
+        private String indexName; // Set if the directory is shared with another site
+        private double virtualTime = 0;
+        private long startNanos;
+        private long endNanos;
+        private boolean interrupted = false; // Set if the batch was interrupted before the site finished
+
+        // Totals of the crawl, kept once it is finished and dropped
+        private long pages;
+        private long files;
+        private long bytes;
+        private String exhaustedReason;
+
+        /**
+         * @param seed          The first address of the crawl.
+         * @param dir           Directory in which the files of the site are saved.
+         * @param scope         Which addresses belong to the site.
+         * @param scopePrefix   With Scope.PREFIX, the prefix of the addresses belonging to the site; null for the seed.
+         * @param weight        Share of the workers and bandwidth relative to the other sites, positive.
+         */
+        public Site(String seed, String dir, Crawl.Scope scope, String scopePrefix, double weight)
+        {
+            this.seed = DownloaderUtilities.hasHTTPsProtocol(seed) ? seed : "http://" + seed;
+            this.dir = dir;
+            this.scope = scope;
+            this.scopePrefix = scopePrefix;
+            this.weight = weight;
+        }
+
+        /**
+         * @return The seed address of the site.
+         */
+        public String getSeed()
+        {
+            return seed;
+        }
+
+        /**
+         * @return Pages of the site downloaded so far.
+         */
+        public long getPages()
+        {
+            return crawl == null ? pages : crawl.getBudget().getPagesUsed();
+        }
+
+        /**
+         * @return Files of the site downloaded so far.
+         */
+        public long getFiles()
+        {
+            return crawl == null ? files : crawl.getNumFilesDownloaded();
+        }
+
+        /**
+         * @return Bytes of the site downloaded so far.
+         */
+        public long getBytes()
+        {
+            return crawl == null ? bytes : crawl.getBudget().getBytesUsed();
+        }
+
+        /**
+         * @return How the crawl of the site ended.
+         */
+        public String getStatus()
+        {
+            if (crawl == null && endNanos == 0)
+            {
+                return "not started";
+            }
+            if (endNanos == 0)
+            {
+                return "running";
+            }
+            if (interrupted)
+            {
+                return "interrupted";
+            }
+            if (exhaustedReason != null)
+            {
+                return "stopped, " + exhaustedReason;
+            }
+            return files == 0 ? "nothing downloaded" : "finished";
+        }
+
+        /**
+         * @return Seconds the site has been crawled for.
+         */
+        public double getSeconds()
+        {
+            if (crawl == null && endNanos == 0)
+            {
+                return 0;
+            }
+            return ((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos) / 1e9;
+        }
+
+        /**
+         * Keeps only the totals of the finished crawl of the site, so that the crawl with its queues and sets of
+         * addresses can be collected while the rest of the batch runs. The crawl must have been finished already.
+         * @param interrupted   True if the batch was interrupted before the site finished.
+         */
+        private void finish(boolean interrupted)
+        {
+            pages = crawl.getBudget().getPagesUsed();
+            files = crawl.getNumFilesDownloaded();
+            bytes = crawl.getBudget().getBytesUsed();
+            exhaustedReason = crawl.getBudget().getExhaustedReason();
+            this.interrupted = interrupted;
+            endNanos = System.nanoTime();
+            crawl = null;
+        }
+
+        /**
+         * @return One line of the batch summary.
+         */
+        private String summaryLine()
+        {
+            return String.format("%-48s %7d %7d %12d %8.1f  %s", seed, getPages(), getFiles(), getBytes(), getSeconds(),
+                    getStatus());
+        }
+    }
+
+    private final List<Site> sites;
+    private final Path batchDir;
+    private final int numWorkers;
+    private final int maxActiveSites;
+    private final BandwidthLimiter bandwidth = BandwidthLimiter.fromSystemProperties(); // Host buckets of all sites
+
+    // Sites waiting to be started, and started sites waiting for a worker ordered by their virtual time; guarded by this
+    private final Deque<Site> waiting = new ArrayDeque<>();
+    private final PriorityQueue<Site> ready = new PriorityQueue<>(Comparator.comparingDouble((Site site) -> site.virtualTime));
+    private int numActiveSites = 0; // Started and unfinished sites, either ready or being worked on
+    private double virtualClock = 0; // Virtual time of the site taken last
+
+    /**
+     * @param sites         The sites to crawl.
+     * @param batchDir      Directory of the batch; holds the crawl log of all sites.
+     * @param numWorkers    Number of worker threads.
+     */
+    public BatchCrawler(List<Site> sites, Path batchDir, int numWorkers)
+    {
+        this.sites = new ArrayList<>(sites);
+        this.batchDir = batchDir;
+        this.numWorkers = Math.max(1, numWorkers);
+        this.maxActiveSites = this.numWorkers * SITES_PER_WORKER;
+
+        // Sites sharing a directory get content-type indexes of their own.
+        Map<String, Integer> sitesPerDir = new HashMap<>();
+        for (Site site : this.sites)
+        {
+            sitesPerDir.merge(site.dir, 1, Integer::sum);
+        }
+        for (int i = 0; i < this.sites.size(); i++)
+        {
+            Site site = this.sites.get(i);
+            if (sitesPerDir.get(site.dir) > 1)
+            {
+                site.indexName = "site" + i;
+            }
+        }
+    }
+
+    /**
+     * Reads a seed file. Every line holds a seed address, optionally followed by the download directory, the scope
+     * and the weight of the site, separated by whitespace. "-" stands for the default of a column; lines starting
+     * with '#' and empty lines are skipped.
+     * The directory defaults to a subdirectory of batchDir named after the host of the seed and relative directories
+     * are resolved against batchDir. The scope is "prefix" (the default, addresses starting with the seed), "host",
+     * "domain" (the host and its subdomains) or an address prefix. The weight defaults to 1.
+     * Example: "https://example.com/docs/ - domain 2"
+     * @param seedFile  The seed file.
+     * @param batchDir  Directory of the batch.
+     * @return          The sites, in the order of the file.
+     * @throws IOException If the file can not be read.
+     * @throws IllegalArgumentException If a line is malformed.
+     */
+    public static List<Site> readSeedFile(Path seedFile, Path batchDir) throws IOException
+    {
+        List<Site> sites = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(seedFile, StandardCharsets.UTF_8))
+        {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null)
+            {
+                lineNumber++;
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#"))
+                {
+                    continue;
+                }
+                try
+                {
+                    sites.add(parseSeedLine(line, batchDir));
+                }
+                catch (IllegalArgumentException e)
+                {
+                    throw new IllegalArgumentException("Line " + lineNumber + " of " + seedFile + ": " + e.getMessage());
+                }
+            }
+        }
+        return sites;
+    }
+
+    /**
+     * Parses one line of a seed file, see readSeedFile.
+     * @param line      A non-empty line.
+     * @param batchDir  Directory of the batch.
+     * @return          The site described by the line.
+     * @throws IllegalArgumentException If the line is malformed.
+     */
+    private static Site parseSeedLine(String line, Path batchDir)
+    {
+        String[] columns = line.split("\\s+");
+        if (columns.length > 4)
+        {
+            throw new IllegalArgumentException("too many columns");
+        }
+        String seed = DownloaderUtilities.hasHTTPsProtocol(columns[0]) ? columns[0] : "http://" + columns[0];
+        URL url;
+        try
+        {
+            url = new URL(seed);
+        }
+        catch (MalformedURLException e)
+        {
+            throw new IllegalArgumentException("invalid seed " + columns[0]);
+        }
+
+        String dir = batchDir.resolve(url.getAuthority().replace(':', '_')).toString();
+        if (columns.length > 1 && ! columns[1].equals(DEFAULT))
+        {
+            dir = batchDir.resolve(columns[1]).toString();
+        }
+
+        Crawl.Scope scope = Crawl.Scope.PREFIX;
+        String scopePrefix = null;
+        if (columns.length > 2 && ! columns[2].equals(DEFAULT))
+        {
+            String column = columns[2];
+            if (DownloaderUtilities.hasHTTPsProtocol(column))
+            {
+                scopePrefix = column;
+            }
+            else
+            {
+                try
+                {
+                    scope = Crawl.Scope.valueOf(column.toUpperCase(Locale.ROOT));
+                }
+                catch (IllegalArgumentException e)
+                {
+                    throw new IllegalArgumentException("unknown scope " + column);
+                }
+            }
+        }
+
+        double weight = 1;
+        if (columns.length > 3 && ! columns[3].equals(DEFAULT))
+        {
+            try
+            {
+                weight = Double.parseDouble(columns[3]);
+            }
+            catch (NumberFormatException e)
+            {
+                weight = 0;
+            }
+            if (! (weight > 0) || Double.isInfinite(weight))
+            {
+                throw new IllegalArgumentException("invalid weight " + columns[3]);
+            }
+        }
+        return new Site(seed, dir, scope, scopePrefix, weight);
+    }
+
+    /**
+     * Crawls all sites and prints a line whenever one finishes.
+     * @throws InterruptedException If the calling thread is interrupted; the workers are stopped after their current
+     *                              step and the unfinished sites are closed before this method returns.
+     */
+    public void run() throws InterruptedException
+    {
+        CrawlLog.open(batchDir.resolve(CrawlLog.LOG_FILE_NAME));
+        List<Site> starting;
+        synchronized (this)
+        {
+            waiting.addAll(sites);
+            starting = takeWaitingSites();
+        }
+        startSites(starting);
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < numWorkers; i++)
+        {
+            Thread worker = new Thread(this::work, "batch-worker-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        try
+        {
+            for (Thread worker : workers)
+            {
+                worker.join();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            for (Thread worker : workers)
+            {
+                worker.interrupt();
+            }
+            // The sites and the log may only be closed once no worker is in the middle of a step.
+            joinUninterruptibly(workers);
+            throw e;
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                for (Site site : sites)
+                {
+                    if (site.crawl != null)
+                    {
+                        site.crawl.finish();
+                        site.finish(true);
+                    }
+                }
+            }
+            CrawlLog.close();
+        }
+    }
+
+    /**
+     * Waits until threads have ended, even if the calling thread is interrupted meanwhile; the interrupt is kept.
+     * @param threads   Threads to wait for.
+     */
+    private static void joinUninterruptibly(List<Thread> threads)
+    {
+        boolean interrupted = false;
+        for (Thread thread : threads)
+        {
+            while (thread.isAlive())
+            {
+                try
+                {
+                    thread.join();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Main loop of a worker: takes the site with the smallest virtual time, downloads one of its addresses and
+     * charges the site for the transferred bytes.
+     */
+    private void work()
+    {
+        try
+        {
+            Site site;
+            while ((site = takeSite()) != null)
+            {
+                CrawlBudget budget = site.crawl.getBudget();
+                long bytesBefore = budget.getBytesUsed();
+                boolean hasMore = false;
+                Crawl.setCurrent(site.crawl);
+                try
+                {
+                    hasMore = Downloader.crawlNext();
+                }
+                catch (RuntimeException e)
+                {
+                    // Only the address is lost, the rest of the site is still crawled.
+                    e.printStackTrace();
+                    hasMore = true;
+                }
+                finally
+                {
+                    Crawl.setCurrent(null);
+                    releaseSite(site, hasMore, budget.getBytesUsed() - bytesBefore);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for a site without a worker and takes the one with the smallest virtual time.
+     * @return The site, or null once all sites are finished.
+     * @throws InterruptedException If the worker is interrupted while waiting.
+     */
+    private synchronized Site takeSite() throws InterruptedException
+    {
+        // Checked before every step, since the loop below does not wait while sites are ready.
+        if (Thread.interrupted())
+        {
+            throw new InterruptedException();
+        }
+        while (ready.isEmpty())
+        {
+            if (numActiveSites == 0 && waiting.isEmpty())
+            {
+                return null;
+            }
+            wait();
+        }
+        Site site = ready.poll();
+        virtualClock = Math.max(virtualClock, site.virtualTime);
+        return site;
+    }
+
+    /**
+     * Hands a site back after a step of its crawl. Finished sites make room for waiting ones.
+     * Files are closed and opened and the summary line is printed without holding the lock, which every other
+     * worker needs for each of its steps.
+     * @param site      The site.
+     * @param hasMore   False if the crawl of the site is finished.
+     * @param bytes     Bytes transferred during the step.
+     */
+    private void releaseSite(Site site, boolean hasMore, long bytes)
+    {
+        if (hasMore)
+        {
+            synchronized (this)
+            {
+                site.virtualTime += Math.max(bytes, MIN_STEP_COST) / site.weight;
+                ready.add(site);
+                notifyAll();
+            }
+            return;
+        }
+
+        // No other worker can take the site, so its crawl may be finished outside the lock.
+        site.crawl.finish();
+        String summaryLine;
+        List<Site> starting;
+        synchronized (this)
+        {
+            site.finish(false);
+            numActiveSites--;
+            summaryLine = site.summaryLine();
+            starting = takeWaitingSites();
+            notifyAll();
+        }
+        System.out.println(summaryLine);
+        startSites(starting);
+    }
+
+    /**
+     * Takes waiting sites off the queue while fewer than maxActiveSites are being crawled. They count as active
+     * from now on, so the workers do not end before they are started. Must hold the lock.
+     * @return The sites to be started by startSites.
+     */
+    private List<Site> takeWaitingSites()
+    {
+        List<Site> starting = new ArrayList<>();
+        while (numActiveSites < maxActiveSites && ! waiting.isEmpty())
+        {
+            Site site = waiting.poll();
+            site.virtualTime = virtualClock;
+            numActiveSites++;
+            starting.add(site);
+        }
+        return starting;
+    }
+
+    /**
+     * Starts the crawls of sites taken by takeWaitingSites and hands them to the workers. Must not hold the lock.
+     * @param starting  The sites to start.
+     */
+    private void startSites(List<Site> starting)
+    {
+        for (Site site : starting)
+        {
+            Crawl crawl = new Crawl(site.seed, site.dir, site.scope, site.scopePrefix,
+                    CrawlBudget.fromSystemProperties(), bandwidth.sharingHosts());
+            long startNanos = System.nanoTime();
+            crawl.start(site.indexName, true);
+            synchronized (this)
+            {
+                site.crawl = crawl;
+                site.startNanos = startNanos;
+                ready.add(site);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @param wallSeconds   Wall-clock seconds the batch took.
+     * @return              A human-readable table of the sites and the totals of the batch.
+     */
+    public synchronized String summary(double wallSeconds)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-48s %7s %7s %12s %8s  %s%n", "Site", "Pages", "Files", "Bytes", "Seconds", "Status"));
+        long totalBytes = 0;
+        long totalFiles = 0;
+        for (Site site : sites)
+        {
+            sb.append(site.summaryLine()).append(System.lineSeparator());
+            totalBytes += site.getBytes();
+            totalFiles += site.getFiles();
+        }
+        sb.append(String.format("%d sites, %d files, %d bytes in %.1f s (%.0f bytes/s)", sites.size(), totalFiles,
+                totalBytes, wallSeconds, wallSeconds > 0 ? totalBytes / wallSeconds : 0));
+        return sb.toString();
+    }
+
+    /**
+     * Runs a batch crawl from the command line.
+     * @param args  The seed file, the batch directory and optionally the number of workers.
+     */
+    public static void main(String[] args)
+    {
+        if (args.length < 2 || args.length > 3)
+        {
+            System.err.println("Usage: BatchCrawler <seedFile> <batchDir> [workers]");
+            System.exit(2);
+        }
+        try
+        {
+            Path batchDir = Paths.get(args[1]);
+            List<Site> sites = readSeedFile(Paths.get(args[0]), batchDir);
+            int workers = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_WORKERS;
+            BatchCrawler batch = new BatchCrawler(sites, batchDir, workers);
+
+            long startNanos = System.nanoTime();
+            batch.run();
+            System.out.println(batch.summary((System.nanoTime() - startNanos) / 1e9));
+            System.out.println(URLMetadataCache.report());
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            System.err.println("Unable to run the batch: " + e.getMessage());
+            System.exit(1);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.veedlaw;
+
+import java.io.IOException;
+
+/**
+ * Signals that a download was rejected or aborted because it would exceed a limit of the CrawlBudget.
+ */
+public class BudgetExceededException extends IOException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final boolean crawlExhausted;
+
+    /**
+     * @param message           Description of the exceeded limit.
+     * @param crawlExhausted    True if a limit of the whole crawl was hit, rather than a limit of a single file.
+     */
+    public BudgetExceededException(String message, boolean crawlExhausted)
+    {
+        super(message);
+        this.crawlExhausted = crawlExhausted;
+    }
+
+    /**
+     * @return True if a limit of the whole crawl was hit and the crawl should stop.
+     */
+    public boolean isCrawlExhausted()
+    {
+        return crawlExhausted;
+    }
+}
@@ -0,0 +1,185 @@
+package com.veedlaw;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Detects the global termination of a distributed crawl.
+ * Every ClusterNode registers with the coordinator, which then repeatedly asks all nodes whether they are idle
+ * and how many addresses they have sent to and received from other nodes. The crawl is finished once two
+ * consecutive rounds find every node idle and the same totals, with every sent address received; addresses still
+ * travelling between nodes would otherwise show up as a difference of the totals.
+ */
+public class ClusterCoordinator
+{
+    private static final long ROUND_INTERVAL_MILLIS = 200;
+
+    private final int port;
+    private final int numNodes;
+
+    private final Socket[] sockets;
+    private final DataInputStream[] inputs;
+    private final DataOutputStream[] outputs;
+
+    /**
+     * @param port      Port on which the coordinator waits for the nodes.
+     * @param numNodes  Number of nodes of the cluster.
+     */
+    public ClusterCoordinator(int port, int numNodes)
+    {
+        this.port = port;
+        this.numNodes = numNodes;
+        this.sockets = new Socket[numNodes];
+        this.inputs = new DataInputStream[numNodes];
+        this.outputs = new DataOutputStream[numNodes];
+    }
+
+    /**
+     * Waits for all nodes to register, runs rounds until the crawl is finished and tells the nodes to stop.
+     * @return Total number of files downloaded by the cluster.
+     * @throws IOException If a node can not be reached; the remaining nodes are told to stop.
+     */
+    public int run() throws IOException
+    {
+        try (ServerSocket serverSocket = new ServerSocket(port))
+        {
+            for (int registered = 0; registered < numNodes; registered++)
+            {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                if (in.readByte() != ClusterNode.MSG_HELLO)
+                {
+                    throw new IOException("Expected a node to register");
+                }
+                int nodeId = in.readInt();
+                if (nodeId < 0 || nodeId >= numNodes || sockets[nodeId] != null)
+                {
+                    throw new IOException("Invalid or duplicate node id " + nodeId);
+                }
+                sockets[nodeId] = socket;
+                inputs[nodeId] = in;
+                outputs[nodeId] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                System.out.println("Node " + nodeId + " registered");
+            }
+        }
+
+        try
+        {
+            return awaitTermination();
+        }
+        finally
+        {
+            terminateAll();
+        }
+    }
+
+    /**
+     * Runs status rounds until two consecutive ones show a finished crawl.
+     * @return Total number of files downloaded by the cluster.
+     * @throws IOException If a node can not be reached.
+     */
+    private int awaitTermination() throws IOException
+    {
+        long previousSent = -1;
+        long previousReceived = -1;
+        boolean previousQuiet = false;
+        while (true)
+        {
+            try
+            {
+                Thread.sleep(ROUND_INTERVAL_MILLIS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the crawl to finish");
+            }
+
+            for (DataOutputStream out : outputs)
+            {
+                out.writeByte(ClusterNode.MSG_STATUS_REQUEST);
+                out.flush();
+            }
+
+            boolean allIdle = true;
+            long sent = 0;
+            long received = 0;
+            int downloaded = 0;
+            for (DataInputStream in : inputs)
+            {
+                if (in.readByte() != ClusterNode.MSG_STATUS)
+                {
+                    throw new IOException("Expected a status message");
+                }
+                allIdle &= in.readBoolean();
+                sent += in.readLong();
+                received += in.readLong();
+                downloaded += in.readInt();
+            }
+
+            boolean quiet = allIdle && sent == received;
+            if (quiet && previousQuiet && sent == previousSent && received == previousReceived)
+            {
+                return downloaded;
+            }
+            previousQuiet = quiet;
+            previousSent = sent;
+            previousReceived = received;
+        }
+    }
+
+    /**
+     * Tells every reachable node to stop and closes the connections.
+     */
+    private void terminateAll()
+    {
+        for (int i = 0; i < numNodes; i++)
+        {
+            if (sockets[i] == null)
+            {
+                continue;
+            }
+            try
+            {
+                outputs[i].writeByte(ClusterNode.MSG_TERMINATE);
+                outputs[i].flush();
+                sockets[i].close();
+            }
+            catch (IOException ignored)
+            {
+                // The node is gone already.
+            }
+        }
+    }
+
+    /**
+     * Runs the coordinator of a distributed crawl from the command line.
+     * Usage: ClusterCoordinator port numNodes
+     * @param args command line args.
+     */
+    public static void main(String[] args)
+    {
+        if (args.length != 2)
+        {
+            System.err.println("Usage: ClusterCoordinator <port> <numNodes>");
+            System.exit(2);
+        }
+        ClusterCoordinator coordinator = new ClusterCoordinator(Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+        try
+        {
+            int downloaded = coordinator.run();
+            System.out.println("Crawl finished, files downloaded by the cluster: " + downloaded);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Coordinator failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
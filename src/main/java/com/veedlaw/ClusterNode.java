@@ -0,0 +1,548 @@
+package com.veedlaw;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A worker of a distributed crawl.
+ * The URL space is split between the workers by consistent hashing of canonical addresses. Every worker crawls
+ * only the addresses it owns and keeps its own queue and set of visited addresses; discovered addresses owned
+ * by another worker are forwarded to it in batches over a plain socket connection.
+ * A ClusterCoordinator periodically collects the workers' counters to detect when the whole crawl is finished.
+ */
+public class ClusterNode
+{
+    // Message types of the cluster protocol
+    static final byte MSG_URLS = 1;           // Worker to worker: int count, followed by count UTF strings
+    static final byte MSG_HELLO = 2;          // Worker to coordinator: int nodeId
+    static final byte MSG_STATUS_REQUEST = 3; // Coordinator to worker
+    static final byte MSG_STATUS = 4;         // Worker to coordinator: boolean idle, long sent, long received, int downloaded
+    static final byte MSG_TERMINATE = 5;      // Coordinator to worker
+    static final byte MSG_ALIASES = 6;        // Worker to worker: int count, followed by count pairs of UTF strings
+
+    private static final int BATCH_SIZE = 256;
+    private static final long FLUSH_INTERVAL_MILLIS = 50;
+    private static final int CONNECT_ATTEMPTS = 100;
+    private static final long CONNECT_RETRY_MILLIS = 300;
+
+    private final int nodeId;
+    private final InetSocketAddress[] nodes;
+    private final InetSocketAddress coordinator;
+    private final HashRing ring;
+
+    private final Set<String> forwarded = new HashSet<>(); // Addresses already sent to other nodes; crawl thread only
+    private final List<List<String>> outgoing = new ArrayList<>(); // Batches waiting to be sent, one per node
+    // Redirect sources and targets waiting to be sent to the owners of the targets, one list of pairs per node
+    private final List<List<String>> outgoingAliases = new ArrayList<>();
+    private final DataOutputStream[] peerStreams;
+    private final Object[] peerLocks;
+
+    private final AtomicLong pendingWork = new AtomicLong(); // Addresses queued locally and not yet processed
+    private final AtomicLong buffered = new AtomicLong();    // Forwarded addresses not yet written to a socket
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+    private volatile boolean terminated = false;
+
+    private ServerSocket serverSocket;
+    private Socket coordinatorSocket;
+
+    /**
+     * @param nodeId        Number of this node, an index into nodes.
+     * @param nodes         Listening addresses of all the workers of the cluster.
+     * @param coordinator   Address of the coordinator.
+     */
+    public ClusterNode(int nodeId, InetSocketAddress[] nodes, InetSocketAddress coordinator)
+    {
+        if (nodeId < 0 || nodeId >= nodes.length)
+        {
+            throw new IllegalArgumentException("Node id " + nodeId + " is not one of the " + nodes.length + " nodes");
+        }
+        this.nodeId = nodeId;
+        this.nodes = nodes;
+        this.coordinator = coordinator;
+        this.ring = new HashRing(nodes.length);
+        this.peerStreams = new DataOutputStream[nodes.length];
+        this.peerLocks = new Object[nodes.length];
+        for (int i = 0; i < nodes.length; i++)
+        {
+            outgoing.add(new ArrayList<>());
+            outgoingAliases.add(new ArrayList<>());
+            peerLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Starts listening for addresses forwarded by other workers and starts sending batches in the background.
+     * @throws IOException If the listening socket can not be opened.
+     */
+    public void start() throws IOException
+    {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(nodes[nodeId]);
+        startDaemon(this::acceptLoop, "ClusterNode-" + nodeId + "-accept");
+        startDaemon(this::flushLoop, "ClusterNode-" + nodeId + "-flush");
+    }
+
+    /**
+     * Registers with the coordinator and starts answering its requests.
+     * Must only be called once the seed address has been enqueued, so that the node does not look idle before it
+     * had a chance to start crawling.
+     * @throws IOException If the coordinator can not be reached.
+     */
+    public void joinCoordinator() throws IOException
+    {
+        coordinatorSocket = connect(coordinator);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(coordinatorSocket.getOutputStream()));
+        out.writeByte(MSG_HELLO);
+        out.writeInt(nodeId);
+        out.flush();
+        startDaemon(() -> coordinatorLoop(out), "ClusterNode-" + nodeId + "-coordinator");
+    }
+
+    /**
+     * Forwards an address to the node owning it, unless this node owns it.
+     * Is only called from the crawling thread.
+     * @param address   Discovered address.
+     * @return          False if the address belongs to this node and should be queued locally.
+     */
+    public boolean forward(String address)
+    {
+        int owner = ring.owner(DownloaderUtilities.canonicalizeURL(address));
+        if (owner == nodeId)
+        {
+            return false;
+        }
+        if (!forwarded.add(address))
+        {
+            return true; // Already sent; the owner deduplicates anyway.
+        }
+
+        List<String> batch = outgoing.get(owner);
+        int size;
+        synchronized (batch)
+        {
+            batch.add(address);
+            buffered.incrementAndGet();
+            size = batch.size();
+        }
+        if (size >= BATCH_SIZE)
+        {
+            flush(owner);
+        }
+        return true;
+    }
+
+    /**
+     * @param address   An URL address.
+     * @return          True if this node owns the address.
+     */
+    public boolean owns(String address)
+    {
+        return ring.owner(DownloaderUtilities.canonicalizeURL(address)) == nodeId;
+    }
+
+    /**
+     * Sends a redirect whose target is owned by another node to that node, which makes its local copy of the target
+     * reachable under the local path of the source once the target is saved. As in a single-process crawl, the source
+     * gets no local copy if the target is never saved.
+     * @param source    Address which redirects to target.
+     * @param target    Final address of the redirect, owned by another node.
+     */
+    public void forwardAlias(String source, String target)
+    {
+        int owner = ring.owner(DownloaderUtilities.canonicalizeURL(target));
+        List<String> batch = outgoingAliases.get(owner);
+        synchronized (batch)
+        {
+            batch.add(source);
+            batch.add(target);
+            buffered.incrementAndGet();
+        }
+    }
+
+    /**
+     * Is called before an address is added to the local queue.
+     */
+    public void workAdded()
+    {
+        pendingWork.incrementAndGet();
+    }
+
+    /**
+     * Is called once an address taken from the local queue has been processed.
+     */
+    public void workDone()
+    {
+        pendingWork.decrementAndGet();
+    }
+
+    /**
+     * @return True once the coordinator has announced that the whole crawl is finished.
+     */
+    public boolean isTerminated()
+    {
+        return terminated;
+    }
+
+    /**
+     * @return Number of this node.
+     */
+    public int getNodeId()
+    {
+        return nodeId;
+    }
+
+    /**
+     * Closes all connections of the node.
+     */
+    public void close()
+    {
+        terminated = true;
+        closeQuietly(serverSocket);
+        closeQuietly(coordinatorSocket);
+        for (int i = 0; i < nodes.length; i++)
+        {
+            synchronized (peerLocks[i])
+            {
+                if (peerStreams[i] != null)
+                {
+                    try
+                    {
+                        peerStreams[i].close();
+                    }
+                    catch (IOException ignored)
+                    {
+                    }
+                    peerStreams[i] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the waiting batches of addresses and aliases to a node.
+     * @param node  Number of the receiving node.
+     */
+    private void flush(int node)
+    {
+        synchronized (peerLocks[node])
+        {
+            if (flush(node, MSG_URLS, outgoing.get(node), 1))
+            {
+                flush(node, MSG_ALIASES, outgoingAliases.get(node), 2);
+            }
+        }
+    }
+
+    /**
+     * Sends one waiting batch to a node. A batch which fails to send is put back to be retried. Must hold the lock
+     * of the node.
+     * @param node          Number of the receiving node.
+     * @param type          Message type of the batch.
+     * @param batch         Strings waiting to be sent.
+     * @param itemLength    Number of strings making up one item of the batch.
+     * @return              False if the batch failed to send.
+     */
+    private boolean flush(int node, byte type, List<String> batch, int itemLength)
+    {
+        List<String> toSend;
+        synchronized (batch)
+        {
+            if (batch.isEmpty())
+            {
+                return true;
+            }
+            toSend = new ArrayList<>(batch);
+            batch.clear();
+        }
+
+        int count = toSend.size() / itemLength;
+        try
+        {
+            if (peerStreams[node] == null)
+            {
+                Socket socket = connect(nodes[node]);
+                peerStreams[node] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            }
+            DataOutputStream out = peerStreams[node];
+            out.writeByte(type);
+            out.writeInt(count);
+            for (String string : toSend)
+            {
+                out.writeUTF(string);
+            }
+            out.flush();
+            sent.addAndGet(count);
+            buffered.addAndGet(-count);
+            return true;
+        }
+        catch (IOException e)
+        {
+            System.err.println("Node " + nodeId + ": unable to send to node " + node + ": " + e.getMessage());
+            peerStreams[node] = null;
+            synchronized (batch)
+            {
+                batch.addAll(0, toSend);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Sends all waiting batches.
+     */
+    private void flushAll()
+    {
+        for (int node = 0; node < nodes.length; node++)
+        {
+            if (node != nodeId)
+            {
+                flush(node);
+            }
+        }
+    }
+
+    /**
+     * Body of the background sending thread.
+     */
+    private void flushLoop()
+    {
+        while (!terminated)
+        {
+            flushAll();
+            try
+            {
+                Thread.sleep(FLUSH_INTERVAL_MILLIS);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Accepts connections from other nodes, each of them is read by its own thread.
+     */
+    private void acceptLoop()
+    {
+        while (!terminated)
+        {
+            try
+            {
+                Socket socket = serverSocket.accept();
+                startDaemon(() -> receiveLoop(socket), "ClusterNode-" + nodeId + "-receive");
+            }
+            catch (IOException e)
+            {
+                return; // The server socket has been closed.
+            }
+        }
+    }
+
+    /**
+     * Reads batches of forwarded addresses and aliases from another node and queues them locally.
+     * @param socket    Connection from the other node.
+     */
+    private void receiveLoop(Socket socket)
+    {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16)))
+        {
+            while (true)
+            {
+                byte type = in.readByte();
+                if (type != MSG_URLS && type != MSG_ALIASES)
+                {
+                    throw new IOException("Unexpected message type " + type);
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++)
+                {
+                    if (type == MSG_URLS)
+                        Downloader.enqueueLocalURL(in.readUTF());
+                    else
+                        Downloader.enqueueForwardedAlias(in.readUTF(), in.readUTF());
+                }
+                // Counted only after queueing, so a node never reports the addresses as delivered while idle.
+                received.addAndGet(count);
+            }
+        }
+        catch (EOFException e)
+        {
+            // The other node closed the connection.
+        }
+        catch (IOException e)
+        {
+            if (!terminated)
+            {
+                System.err.println("Node " + nodeId + ": connection from another node failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Answers status requests of the coordinator until it announces termination.
+     * @param out   Stream to the coordinator.
+     */
+    private void coordinatorLoop(DataOutputStream out)
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(coordinatorSocket.getInputStream()));
+            while (true)
+            {
+                byte type = in.readByte();
+                if (type == MSG_TERMINATE)
+                {
+                    terminated = true;
+                    return;
+                }
+                if (type != MSG_STATUS_REQUEST)
+                {
+                    throw new IOException("Unexpected message type " + type);
+                }
+                flushAll();
+                // The idle state is read before the counters, so any activity in between shows up in the counters
+                // and the coordinator sees the totals change between its rounds.
+                boolean idle = pendingWork.get() == 0 && buffered.get() == 0;
+                long sentCount = sent.get();
+                long receivedCount = received.get();
+                out.writeByte(MSG_STATUS);
+                out.writeBoolean(idle);
+                out.writeLong(sentCount);
+                out.writeLong(receivedCount);
+                out.writeInt(Downloader.getNumFilesDownloaded());
+                out.flush();
+            }
+        }
+        catch (IOException e)
+        {
+            if (!terminated)
+            {
+                System.err.println("Node " + nodeId + ": lost the coordinator, stopping: " + e.getMessage());
+                terminated = true;
+            }
+        }
+    }
+
+    /**
+     * Connects to an address, retrying for a while so that nodes may be started in any order.
+     * @param address   Address to connect to.
+     * @return          The connected socket.
+     * @throws IOException If no connection could be made.
+     */
+    static Socket connect(InetSocketAddress address) throws IOException
+    {
+        IOException lastException = null;
+        for (int attempt = 0; attempt < CONNECT_ATTEMPTS; attempt++)
+        {
+            Socket socket = new Socket();
+            try
+            {
+                socket.setTcpNoDelay(true);
+                socket.connect(address, 1000);
+                return socket;
+            }
+            catch (IOException e)
+            {
+                closeQuietly(socket);
+                lastException = e;
+            }
+            try
+            {
+                Thread.sleep(CONNECT_RETRY_MILLIS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        throw lastException != null ? lastException : new IOException("Interrupted while connecting to " + address);
+    }
+
+    /**
+     * Parses a "host:port" string.
+     * @param hostAndPort   Address in the form "host:port".
+     * @return              The parsed socket address.
+     */
+    static InetSocketAddress parseAddress(String hostAndPort)
+    {
+        int colonIndex = hostAndPort.lastIndexOf(':');
+        if (colonIndex == -1)
+        {
+            throw new IllegalArgumentException("Expected host:port but got " + hostAndPort);
+        }
+        return new InetSocketAddress(hostAndPort.substring(0, colonIndex),
+                Integer.parseInt(hostAndPort.substring(colonIndex + 1)));
+    }
+
+    private static void startDaemon(Runnable runnable, String name)
+    {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(AutoCloseable closeable)
+    {
+        if (closeable == null)
+        {
+            return;
+        }
+        try
+        {
+            closeable.close();
+        }
+        catch (Exception ignored)
+        {
+        }
+    }
+
+    /**
+     * Runs a worker of a distributed crawl from the command line.
+     * Usage: ClusterNode nodeId host:port,host:port,... coordinatorHost:port url dir
+     * The list of addresses gives the listening address of every worker, in the order of their ids.
+     * @param args command line args.
+     */
+    public static void main(String[] args)
+    {
+        if (args.length != 5)
+        {
+            System.err.println("Usage: ClusterNode <nodeId> <host:port,host:port,...> <coordinatorHost:port> <url> <dir>");
+            System.exit(2);
+        }
+        String[] nodeAddresses = args[1].split(",");
+        InetSocketAddress[] nodes = new InetSocketAddress[nodeAddresses.length];
+        for (int i = 0; i < nodes.length; i++)
+        {
+            nodes[i] = parseAddress(nodeAddresses[i].trim());
+        }
+        ClusterNode node = new ClusterNode(Integer.parseInt(args[0]), nodes, parseAddress(args[2]));
+
+        try
+        {
+            System.out.println(Downloader.runClusterWorker(args[3], args[4], node));
+        }
+        catch (IOException e)
+        {
+            System.err.println("Node " + node.getNodeId() + " failed: " + e.getMessage());
+            System.exit(1);
+        }
+        System.out.println("Node " + node.getNodeId() + " finished, files downloaded: " + Downloader.getNumFilesDownloaded());
+        System.exit(0);
+    }
+}
@@ -0,0 +1,144 @@
+package com.veedlaw;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records the content-type of every file saved by a crawl, so that the mirror can later be served with the types
+ * the original server sent instead of ones guessed from file names.
+ * The index is a tab-separated file of local paths, relative to the download root, and content-types. It is only
+ * appended to, a later line for the same path replaces an earlier one.
+ */
+public final class ContentTypeIndex
+{
+    public static final String FILE_PREFIX = ".jget-content-types";
+    public static final String FILE_SUFFIX = ".tsv";
+
+    private Writer writer;
+
+    /**
+     * Opens the index of a download root for appending.
+     * @param root      Download root.
+     * @param indexName Distinguishes the index files of crawls which share a root, such as the nodes of a
+     *                  distributed crawl, or null.
+     */
+    public ContentTypeIndex(Path root, String indexName)
+    {
+        Path file = root.resolve(FILE_PREFIX + (indexName == null ? "" : "-" + indexName) + FILE_SUFFIX);
+        try
+        {
+            Files.createDirectories(root);
+            writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Flushes and closes the index. Does nothing if it is not open.
+     */
+    public synchronized void close()
+    {
+        if (writer == null)
+        {
+            return;
+        }
+        try
+        {
+            writer.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        writer = null;
+    }
+
+    /**
+     * Records the content-type of a saved file.
+     * @param dir           Local directory relative to the download root, as returned by DownloaderUtilities.getPath.
+     * @param fileName      Local file name, as returned by DownloaderUtilities.getFileName.
+     * @param contentType   Content-type of the file, nothing is recorded if it is null.
+     */
+    public synchronized void record(String dir, String fileName, String contentType)
+    {
+        if (writer == null || contentType == null)
+        {
+            return;
+        }
+        String path = CrawlLog.joinPath(dir, fileName);
+        if (hasControlCharacter(path) || hasControlCharacter(contentType))
+        {
+            return; // Would break the line format; the server guesses the type of such files instead.
+        }
+        try
+        {
+            writer.write(path);
+            writer.write('\t');
+            writer.write(contentType);
+            writer.write('\n');
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads all index files of a download root.
+     * @param root  Download root.
+     * @return      Content-types keyed by local paths relative to the root, using '/' as the separator.
+     * @throws IOException If the root can not be listed or an index can not be read.
+     */
+    public static Map<String, String> load(Path root) throws IOException
+    {
+        Map<String, String> contentTypes = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, FILE_PREFIX + "*" + FILE_SUFFIX))
+        {
+            for (Path file : files)
+            {
+                try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8))
+                {
+                    String line;
+                    while ((line = reader.readLine()) != null)
+                    {
+                        int tab = line.indexOf('\t');
+                        if (tab > 0)
+                        {
+                            contentTypes.put(line.substring(0, tab), line.substring(tab + 1));
+                        }
+                    }
+                }
+            }
+        }
+        return contentTypes;
+    }
+
+    /**
+     * @param s A string.
+     * @return  True if s contains a tab, a line break or another control character.
+     */
+    private static boolean hasControlCharacter(String s)
+    {
+        for (int i = 0; i < s.length(); i++)
+        {
+            if (s.charAt(i) < 0x20)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,369 @@
+package com.veedlaw;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State of a single crawl: its seed, scope and download directory, the queues and sets of addresses, the local names
+ * of downloaded files and the budget, bandwidth limits and trap detector it runs with.
+ * Downloader and DownloaderUtilities work on the current crawl of the calling thread. A thread which has not chosen
+ * one works on the primary crawl, which is the one run by runDownload, runClusterWorker or the GUI; a batch
+ * crawl switches its worker threads between the crawls of its sites.
+ * A crawl must not be worked on by several threads at once, except that addresses and forwarded aliases may be
+ * enqueued from any thread.
+ */
+public class Crawl
+{
+    /**
+     * Which addresses belong to a crawl.
+     */
+    public enum Scope
+    {
+        PREFIX, // Addresses starting with the seed address, or with an explicitly given prefix
+        HOST,   // Addresses on the host of the seed
+        DOMAIN  // Addresses on the host of the seed or its subdomains
+    }
+
+    private static final ThreadLocal<Crawl> threadCrawl = new ThreadLocal<>();
+    private static volatile Crawl primary = new Crawl("http://localhost/", ".", Scope.PREFIX, null,
+            new CrawlBudget(), BandwidthLimiter.fromSystemProperties());
+
+    final String baseURL;
+    final String rootDir; // Directory to which files are downloaded to
+    private final Scope scope;
+    private final String scopePrefix;
+    private final String scopeHost;
+
+    // URLs which are yet to be downloaded; other nodes of a distributed crawl add to the queue from their own threads.
+    final BlockingQueue<String> discoveredURLs = new LinkedBlockingQueue<>();
+    // Addresses matching URL patterns suspected to be crawler traps; only crawled once discoveredURLs is empty
+    final BlockingQueue<String> deferredURLs = new LinkedBlockingQueue<>();
+    final Set<String> queuedURLs = ConcurrentHashMap.newKeySet(); // Addresses currently in either queue
+    final Set<String> visitedURLs = new HashSet<>();
+    // Redirect targets which are yet to be saved, mapped to the addresses whose local paths should lead to them
+    final Map<String, List<String>> pendingAliases = new HashMap<>();
+    // Redirects sent by other nodes of a distributed crawl whose targets this node owns, as source and target
+    final Queue<Map.Entry<String, String>> forwardedAliases = new ConcurrentLinkedQueue<>();
+    // Used as a mapping between URLs and local URLs (preserving directory structure)
+    final HashMap<String, String> renameMap = new HashMap<>();
+    final RedirectCache redirects = new RedirectCache();
+
+    final CrawlBudget budget;
+    final BandwidthLimiter bandwidth;
+    final TrapDetector trapDetector = TrapDetector.fromSystemProperties();
+    ContentTypeIndex contentTypes;
+    volatile ClusterNode cluster = null; // Set while running as a worker of a distributed crawl
+
+    volatile int numFilesDownloaded = 0;
+    volatile String currentDownload = ""; // Is accessed via a getter method by the GUI for information displaying purposes.
+
+    /**
+     * @param seed          The first address of the crawl, with HTTP(s) scheme.
+     * @param rootDir       Directory in which the files are saved.
+     * @param scope         Which addresses belong to the crawl.
+     * @param scopePrefix   With Scope.PREFIX, the prefix of the addresses belonging to the crawl; null for the seed.
+     * @param budget        Resource limits of the crawl.
+     * @param bandwidth     Bandwidth limits of the crawl.
+     */
+    public Crawl(String seed, String rootDir, Scope scope, String scopePrefix, CrawlBudget budget, BandwidthLimiter bandwidth)
+    {
+        this.baseURL = seed;
+        this.rootDir = rootDir;
+        this.scope = scope;
+        this.scopePrefix = scopePrefix == null ? seed : scopePrefix;
+        this.scopeHost = getHost(seed);
+        this.budget = budget;
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * @return The crawl the calling thread works on.
+     */
+    public static Crawl current()
+    {
+        Crawl crawl = threadCrawl.get();
+        return crawl != null ? crawl : primary;
+    }
+
+    /**
+     * Chooses the crawl the calling thread works on.
+     * @param crawl The crawl, or null to work on the primary crawl.
+     */
+    static void setCurrent(Crawl crawl)
+    {
+        if (crawl == null)
+        {
+            threadCrawl.remove();
+        }
+        else
+        {
+            threadCrawl.set(crawl);
+        }
+    }
+
+    /**
+     * @return The crawl of threads which have not chosen one, shown by the GUI.
+     */
+    public static Crawl getPrimary()
+    {
+        return primary;
+    }
+
+    /**
+     * @param crawl The crawl of threads which have not chosen one.
+     */
+    static void setPrimary(Crawl crawl)
+    {
+        primary = crawl;
+    }
+
+    /**
+     * Starts the clock of the budget, opens the content-type index and optionally queues the seed.
+     * @param indexName     Distinguishes the content-type index of crawls sharing a directory, or null.
+     * @param enqueueSeed   False if the caller queues the seed itself, as the workers of a distributed crawl do.
+     */
+    void start(String indexName, boolean enqueueSeed)
+    {
+        budget.start();
+        contentTypes = new ContentTypeIndex(Paths.get(rootDir), indexName);
+        if (enqueueSeed)
+        {
+            enqueue(baseURL);
+        }
+    }
+
+    /**
+     * Closes the content-type index.
+     */
+    void finish()
+    {
+        if (contentTypes != null)
+        {
+            contentTypes.close();
+        }
+    }
+
+    /**
+     * Enqueues an address to be downloaded by this process, regardless of which worker of a distributed crawl owns it.
+     * Addresses matching a suspected crawler trap go to the deferred queue.
+     * @param address   An URL address.
+     */
+    void enqueue(String address)
+    {
+        ClusterNode node = cluster;
+        if (node != null)
+        {
+            node.workAdded();
+        }
+        queuedURLs.add(address);
+        if (trapDetector.isSuspected(address))
+            deferredURLs.add(address);
+        else
+            discoveredURLs.add(address);
+    }
+
+    /**
+     * Queues a redirect sent by another node of a distributed crawl, to be turned into an alias by the crawling thread.
+     * @param source    Address which redirects to target.
+     * @param target    Final address of the redirect, owned by this node.
+     */
+    void enqueueForwardedAlias(String source, String target)
+    {
+        ClusterNode node = cluster;
+        if (node != null)
+        {
+            node.workAdded();
+        }
+        forwardedAliases.add(Map.entry(source, target));
+    }
+
+    /**
+     * Takes the next address to download. Addresses whose URL pattern has come to be suspected as a crawler trap
+     * since they were queued are moved to the deferred queue on the way.
+     * @return The next address, or null if both queues are empty.
+     */
+    String pollAddress()
+    {
+        String address;
+        while ((address = discoveredURLs.poll()) != null)
+        {
+            if (! trapDetector.isSuspected(address))
+            {
+                return address;
+            }
+            deferredURLs.add(address);
+        }
+        return deferredURLs.poll();
+    }
+
+    /**
+     * Takes the next address to download like pollAddress, waiting for one to be queued if both queues are empty.
+     * @param timeout   How long to wait.
+     * @param unit      Unit of timeout.
+     * @return          The next address, or null if none was queued in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    String pollAddress(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        String address = pollAddress();
+        if (address == null)
+        {
+            // Only the main queue is waited on; addresses deferred meanwhile are taken by the next call.
+            address = discoveredURLs.poll(timeout, unit);
+            if (address != null && trapDetector.isSuspected(address))
+            {
+                deferredURLs.add(address);
+                address = pollAddress();
+            }
+        }
+        return address;
+    }
+
+    /**
+     * @return True if an address is waiting in either queue.
+     */
+    boolean hasQueuedAddresses()
+    {
+        return ! discoveredURLs.isEmpty() || ! deferredURLs.isEmpty();
+    }
+
+    /**
+     * @return The address that would be downloaded next, or null if none is queued.
+     */
+    String peekAddress()
+    {
+        String next = discoveredURLs.peek();
+        return next != null ? next : deferredURLs.peek();
+    }
+
+    /**
+     * Drops all queued addresses.
+     */
+    void clearQueues()
+    {
+        discoveredURLs.clear();
+        deferredURLs.clear();
+        queuedURLs.clear();
+    }
+
+    /**
+     * Checks whether an address belongs to the crawl, so that it is downloaded and linked to locally.
+     * @param address   An URL address.
+     * @return          True if the address is in the scope of the crawl.
+     */
+    public boolean isInScope(String address)
+    {
+        if (scope == Scope.PREFIX)
+        {
+            return DownloaderUtilities.isOnSameDomain(scopePrefix, address);
+        }
+        if (! DownloaderUtilities.hasHTTPsProtocol(address))
+        {
+            return false;
+        }
+        String host = getHost(address);
+        if (host == null || scopeHost == null)
+        {
+            return false;
+        }
+        if (scope == Scope.HOST)
+        {
+            return host.equals(scopeHost);
+        }
+        String domain = scopeHost.startsWith("www.") ? scopeHost.substring("www.".length()) : scopeHost;
+        return host.equals(domain) || host.endsWith("." + domain);
+    }
+
+    /**
+     * @return The seed address of the crawl.
+     */
+    public String getSeed()
+    {
+        return baseURL;
+    }
+
+    /**
+     * @return Directory in which the files are saved.
+     */
+    public String getRootDir()
+    {
+        return rootDir;
+    }
+
+    /**
+     * @return The budget of the crawl.
+     */
+    public CrawlBudget getBudget()
+    {
+        return budget;
+    }
+
+    /**
+     * @return The bandwidth limits of the crawl; they may be changed while it runs.
+     */
+    public BandwidthLimiter getBandwidthLimiter()
+    {
+        return bandwidth;
+    }
+
+    /**
+     * @return Number of files saved to disk.
+     */
+    public int getNumFilesDownloaded()
+    {
+        return numFilesDownloaded;
+    }
+
+    /**
+     * @return Number of queued addresses.
+     */
+    public int getNumQueued()
+    {
+        return discoveredURLs.size() + deferredURLs.size();
+    }
+
+    /**
+     * @return Address which is being downloaded.
+     */
+    public String getCurrentDownload()
+    {
+        return currentDownload;
+    }
+
+    /**
+     * @return A human-readable report of the used resources and detected traps.
+     */
+    public String report()
+    {
+        return budget.report() + System.lineSeparator() + trapDetector.report();
+    }
+
+    /**
+     * @param address   An URL address.
+     * @return          Its host in lower case, or null if it can not be parsed.
+     */
+    private static String getHost(String address)
+    {
+        try
+        {
+            return new URL(address).getHost().toLowerCase(Locale.ROOT);
+        }
+        catch (MalformedURLException e)
+        {
+            return null;
+        }
+    }
+}
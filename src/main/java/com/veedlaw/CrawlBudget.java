@@ -0,0 +1,289 @@
+package com.veedlaw;
+
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Resource limits of a crawl and the resources used so far.
+ * Limits the total number of transferred bytes, the number of HTML pages, the wall time and the size of individual
+ * files, optionally per content-type. Every limit is unlimited unless set.
+ * Limits may be given as system properties, see fromSystemProperties.
+ */
+public class CrawlBudget
+{
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private static final String PROPERTY_PREFIX = "jget.budget.";
+    private static final String TYPE_PROPERTY_PREFIX = PROPERTY_PREFIX + "type.";
+
+    private long maxBytes = UNLIMITED;
+    private long maxPages = UNLIMITED;
+    private long maxMillis = UNLIMITED;
+    private long maxFileSize = UNLIMITED;
+    // Maximal file sizes keyed by content-type prefix, such as "video/" or "image/png"
+    private final Map<String, Long> maxFileSizeByType = new LinkedHashMap<>();
+
+    private long startMillis;
+    private long bytesUsed;
+    private long pagesUsed;
+    private long filesRejected;
+    private String exhaustedReason;
+
+    /**
+     * Reads the limits from system properties:
+     * jget.budget.maxBytes, jget.budget.maxPages, jget.budget.maxSeconds and jget.budget.maxFileSize for the global
+     * limits and jget.budget.type.&lt;content-type prefix&gt; for per-type file size limits,
+     * e.g. -Djget.budget.type.video/=100M. Sizes may have a K, M or G suffix.
+     * @return A budget with the configured limits.
+     */
+    public static CrawlBudget fromSystemProperties()
+    {
+        CrawlBudget budget = new CrawlBudget();
+        for (String name : System.getProperties().stringPropertyNames())
+        {
+            if (!name.startsWith(PROPERTY_PREFIX))
+            {
+                continue;
+            }
+            String value = System.getProperty(name);
+            switch (name.substring(PROPERTY_PREFIX.length()))
+            {
+                case "maxBytes" -> budget.setMaxBytes(parseSize(value));
+                case "maxPages" -> budget.setMaxPages(Long.parseLong(value.trim()));
+                case "maxSeconds" -> budget.setMaxMillis(Long.parseLong(value.trim()) * 1000);
+                case "maxFileSize" -> budget.setMaxFileSize(parseSize(value));
+                default ->
+                {
+                    if (name.startsWith(TYPE_PROPERTY_PREFIX))
+                    {
+                        budget.setMaxFileSize(name.substring(TYPE_PROPERTY_PREFIX.length()), parseSize(value));
+                    }
+                }
+            }
+        }
+        return budget;
+    }
+
+    /**
+     * Parses a size such as "512", "64K", "10M" or "2G".
+     * @param size  Size string.
+     * @return      The size in bytes.
+     */
+    public static long parseSize(String size)
+    {
+        size = size.trim().toUpperCase(Locale.ROOT);
+        long multiplier = 1;
+        if (size.endsWith("K") || size.endsWith("M") || size.endsWith("G"))
+        {
+            multiplier = switch (size.charAt(size.length() - 1))
+                    {
+                        case 'K' -> 1L << 10;
+                        case 'M' -> 1L << 20;
+                        default -> 1L << 30;
+                    };
+            size = size.substring(0, size.length() - 1).trim();
+        }
+        return Long.parseLong(size) * multiplier;
+    }
+
+    /**
+     * @param maxBytes    Maximal number of bytes transferred by the whole crawl.
+     */
+    public void setMaxBytes(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param maxPages    Maximal number of HTML pages downloaded by the whole crawl.
+     */
+    public void setMaxPages(long maxPages)
+    {
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * @param maxMillis   Maximal wall time of the crawl in milliseconds.
+     */
+    public void setMaxMillis(long maxMillis)
+    {
+        this.maxMillis = maxMillis;
+    }
+
+    /**
+     * @param maxFileSize Maximal size of any single file in bytes.
+     */
+    public void setMaxFileSize(long maxFileSize)
+    {
+        this.maxFileSize = maxFileSize;
+    }
+
+    /**
+     * Limits the size of files whose content-type starts with a prefix.
+     * @param contentTypePrefix A content-type or its prefix, such as "video/".
+     * @param maxFileSize       Maximal size of such files in bytes.
+     */
+    public void setMaxFileSize(String contentTypePrefix, long maxFileSize)
+    {
+        maxFileSizeByType.put(contentTypePrefix.toLowerCase(Locale.ROOT), maxFileSize);
+    }
+
+    /**
+     * Resets the used resources and starts the clock of the crawl.
+     */
+    public synchronized void start()
+    {
+        startMillis = System.currentTimeMillis();
+        bytesUsed = 0;
+        pagesUsed = 0;
+        filesRejected = 0;
+        exhaustedReason = null;
+    }
+
+    /**
+     * Checks whether any limit of the whole crawl has been reached. Once it has, the crawl should stop.
+     * @return True if the budget is exhausted.
+     */
+    public synchronized boolean isExhausted()
+    {
+        if (exhaustedReason == null)
+        {
+            if (bytesUsed >= maxBytes)
+            {
+                exhaustedReason = "byte budget of " + maxBytes + " bytes exhausted";
+            }
+            else if (pagesUsed >= maxPages)
+            {
+                exhaustedReason = "page budget of " + maxPages + " pages exhausted";
+            }
+            else if (maxMillis != UNLIMITED && System.currentTimeMillis() - startMillis >= maxMillis)
+            {
+                exhaustedReason = "time budget of " + maxMillis / 1000 + " s exhausted";
+            }
+        }
+        return exhaustedReason != null;
+    }
+
+    /**
+     * Decides how many bytes a response may transfer before it is aborted, rejecting it straight away if its
+     * Content-Length is already over the limit.
+     * @param contentType   Content-type of the response, may be null.
+     * @param contentLength Content-Length of the response, or -1 if unknown.
+     * @return              Maximal number of bytes the response may transfer on its own.
+     * @throws BudgetExceededException If the response is known to exceed a limit.
+     */
+    public synchronized long checkResponse(String contentType, long contentLength) throws BudgetExceededException
+    {
+        long fileLimit = getMaxFileSize(contentType);
+        if (contentLength > fileLimit)
+        {
+            throw new BudgetExceededException("Content-Length of " + contentLength
+                    + " bytes exceeds the size limit of " + fileLimit + " bytes", false);
+        }
+        if (maxBytes != UNLIMITED && contentLength > maxBytes - bytesUsed)
+        {
+            exhaustedReason = "byte budget of " + maxBytes + " bytes exhausted";
+            throw new BudgetExceededException("Byte budget of the crawl exhausted", true);
+        }
+        return fileLimit;
+    }
+
+    /**
+     * Wraps a response stream so that the transfer is aborted once the file limit, the remaining bytes of the crawl
+     * or the time budget are crossed.
+     * @param in        Response body.
+     * @param fileLimit Limit returned by checkResponse.
+     * @return          The limited stream; its count is to be passed to addBytes once the transfer ends.
+     */
+    public synchronized LimitedInputStream limit(InputStream in, long fileLimit)
+    {
+        long remaining = maxBytes == UNLIMITED ? UNLIMITED : Math.max(0, maxBytes - bytesUsed);
+        long deadline = maxMillis == UNLIMITED ? UNLIMITED : startMillis + maxMillis;
+        return new LimitedInputStream(in, Math.min(fileLimit, remaining), remaining < fileLimit, deadline);
+    }
+
+    /**
+     * Accounts transferred bytes, including those of aborted transfers.
+     * @param bytes Number of bytes transferred.
+     */
+    public synchronized void addBytes(long bytes)
+    {
+        bytesUsed += bytes;
+    }
+
+    /**
+     * Accounts a downloaded HTML page.
+     */
+    public synchronized void addPage()
+    {
+        pagesUsed++;
+    }
+
+    /**
+     * Accounts a file which was rejected or aborted for exceeding a file size limit.
+     */
+    public synchronized void addRejectedFile()
+    {
+        filesRejected++;
+    }
+
+    /**
+     * @return Number of bytes transferred so far.
+     */
+    public synchronized long getBytesUsed()
+    {
+        return bytesUsed;
+    }
+
+    /**
+     * @return Number of HTML pages downloaded so far.
+     */
+    public synchronized long getPagesUsed()
+    {
+        return pagesUsed;
+    }
+
+    /**
+     * @return Description of the exhausted limit, or null if the budget is not exhausted.
+     */
+    public synchronized String getExhaustedReason()
+    {
+        return exhaustedReason;
+    }
+
+    /**
+     * @return A human-readable report of the used resources.
+     */
+    public synchronized String report()
+    {
+        return String.format("%s after %d s: %d bytes transferred, %d pages, %d files over the size limit",
+                exhaustedReason == null ? "Crawl finished" : "Crawl stopped, " + exhaustedReason,
+                (System.currentTimeMillis() - startMillis) / 1000, bytesUsed, pagesUsed, filesRejected);
+    }
+
+    /**
+     * Finds the file size limit for a content-type, the most specific matching prefix wins.
+     * @param contentType   Content-type of the file, may be null.
+     * @return              Maximal size of the file in bytes.
+     */
+    private long getMaxFileSize(String contentType)
+    {
+        long limit = maxFileSize;
+        if (contentType != null && !maxFileSizeByType.isEmpty())
+        {
+            String type = contentType.toLowerCase(Locale.ROOT);
+            int longestMatch = -1;
+            for (Map.Entry<String, Long> entry : maxFileSizeByType.entrySet())
+            {
+                if (type.startsWith(entry.getKey()) && entry.getKey().length() > longestMatch)
+                {
+                    longestMatch = entry.getKey().length();
+                    limit = Math.min(maxFileSize, entry.getValue());
+                }
+            }
+        }
+        return limit;
+    }
+}
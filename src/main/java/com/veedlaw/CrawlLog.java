@@ -0,0 +1,348 @@
+package com.veedlaw;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A machine-readable log of the crawl.
+ * Every record has the same fixed schema (event, URL, status, bytes, timings and local path).
+ * Records are appended to a preallocated ring buffer by the crawling thread and a background thread writes them
+ * in batches to a JSON-lines file, so the crawl itself never waits on formatting or disk writes.
+ */
+public final class CrawlLog
+{
+    /**
+     * Kinds of events that are recorded in the crawl log.
+     */
+    public enum Event
+    {
+        HTML,           // An HTML document was saved
+        FILE,           // A non-HTML file was saved
+        HTML_FALLBACK,  // An HTML document could not be fetched, a plain download is attempted instead
+        CONNECT_FAILED, // No connection could be opened to the address
+        FAILED,         // The address could not be downloaded
+        REJECTED,       // The file was rejected or aborted for exceeding a size limit of the crawl budget
+        REDIRECT_DEDUPLICATED, // The address redirects to one visited or queued already; the path is the target's
+        NEAR_DUPLICATE, // The page is a near-duplicate of an earlier one; precedes the HTML record of the page
+        BUDGET_EXHAUSTED // The crawl stopped because its budget is exhausted; the URL is the next one in the queue
+    }
+
+    public static final String LOG_FILE_NAME = "crawl-log.jsonl";
+
+    private static final int CAPACITY = 4096; // Must be a power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final long FLUSH_INTERVAL_MILLIS = 250;
+
+    // The ring buffer is stored column-wise so that appending a record does not allocate.
+    private static final Event[] events = new Event[CAPACITY];
+    private static final String[] urls = new String[CAPACITY];
+    private static final int[] statuses = new int[CAPACITY];
+    private static final long[] byteCounts = new long[CAPACITY];
+    private static final long[] timestamps = new long[CAPACITY];
+    private static final long[] durations = new long[CAPACITY];
+    private static final String[] dirs = new String[CAPACITY];
+    private static final String[] fileNames = new String[CAPACITY];
+
+    private static long head = 0; // Sequence number of the next record to be written; guarded by lock
+    private static long tail = 0; // Sequence number of the next record to be flushed; guarded by lock
+
+    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Condition notFull = lock.newCondition();
+    private static final Condition flushRequested = lock.newCondition();
+
+    private static volatile boolean enabled = !"false".equals(System.getProperty("jget.crawllog"));
+    private static volatile boolean open = false;
+
+    private static Writer writer;
+    private static Thread flusher;
+
+    private CrawlLog()
+    {
+    }
+
+    /**
+     * Opens the log file and starts the background flushing thread.
+     * If the log is already open it is closed first, so repeated crawls never write through multiple handles.
+     * Records are appended to an existing log file.
+     * @param logFile   Path of the JSON-lines file the records are written to.
+     */
+    public static synchronized void open(Path logFile)
+    {
+        close();
+        if (!enabled)
+        {
+            return;
+        }
+        try
+        {
+            Files.createDirectories(logFile.toAbsolutePath().getParent());
+            writer = new BufferedWriter(Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), 1 << 16);
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            return;
+        }
+        open = true;
+        flusher = new Thread(CrawlLog::flushLoop, "CrawlLog-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Stops accepting records, waits until every buffered record has been written and closes the log file.
+     * Does nothing if the log is not open.
+     */
+    public static synchronized void close()
+    {
+        if (!open)
+        {
+            return;
+        }
+        lock.lock();
+        try
+        {
+            open = false;
+            flushRequested.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        try
+        {
+            flusher.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        try
+        {
+            writer.close();
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+        flusher = null;
+        writer = null;
+    }
+
+    /**
+     * Enables or disables the crawl log. A disabled log drops records without allocating anything.
+     * The log is enabled by default; the "jget.crawllog" system property set to "false" disables it.
+     * @param enabled   True if records should be written.
+     */
+    public static void setEnabled(boolean enabled)
+    {
+        CrawlLog.enabled = enabled;
+    }
+
+    /**
+     * @return True if records are currently being accepted.
+     */
+    public static boolean isEnabled()
+    {
+        return enabled && open;
+    }
+
+    /**
+     * Appends a record to the ring buffer. Blocks only if the flushing thread has fallen a whole buffer behind.
+     * The local path is passed as two parts and only joined by the flushing thread.
+     * @param event         Kind of the event.
+     * @param url           Address the record concerns.
+     * @param status        HTTP status code of the response, or -1 if unknown.
+     * @param bytes         Number of bytes saved to disk.
+     * @param startNanos    Value of System.nanoTime() when handling of the address started.
+     * @param dir           Local directory relative to the download root, or null if nothing was saved.
+     * @param fileName      Local file name, or null if nothing was saved.
+     */
+    public static void record(Event event, String url, int status, long bytes, long startNanos, String dir, String fileName)
+    {
+        if (!enabled || !open)
+        {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long duration = System.nanoTime() - startNanos;
+
+        lock.lock();
+        try
+        {
+            while (open && head - tail == CAPACITY)
+            {
+                notFull.awaitUninterruptibly();
+            }
+            if (!open)
+            {
+                return;
+            }
+            int slot = (int) (head & MASK);
+            events[slot] = event;
+            urls[slot] = url;
+            statuses[slot] = status;
+            byteCounts[slot] = bytes;
+            timestamps[slot] = now;
+            durations[slot] = duration;
+            dirs[slot] = dir;
+            fileNames[slot] = fileName;
+            head++;
+            if (head - tail >= CAPACITY / 2)
+            {
+                flushRequested.signal();
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Body of the flushing thread. Periodically moves all buffered records into a private batch and writes it.
+     */
+    private static void flushLoop()
+    {
+        Event[] batchEvents = new Event[CAPACITY];
+        String[] batchUrls = new String[CAPACITY];
+        int[] batchStatuses = new int[CAPACITY];
+        long[] batchBytes = new long[CAPACITY];
+        long[] batchTimestamps = new long[CAPACITY];
+        long[] batchDurations = new long[CAPACITY];
+        String[] batchDirs = new String[CAPACITY];
+        String[] batchFileNames = new String[CAPACITY];
+        StringBuilder line = new StringBuilder(256);
+
+        boolean running = true;
+        while (running)
+        {
+            int count = 0;
+            lock.lock();
+            try
+            {
+                if (open && head == tail)
+                {
+                    flushRequested.await(FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                running = open;
+                while (tail != head)
+                {
+                    int slot = (int) (tail & MASK);
+                    batchEvents[count] = events[slot];
+                    batchUrls[count] = urls[slot];
+                    batchStatuses[count] = statuses[slot];
+                    batchBytes[count] = byteCounts[slot];
+                    batchTimestamps[count] = timestamps[slot];
+                    batchDurations[count] = durations[slot];
+                    batchDirs[count] = dirs[slot];
+                    batchFileNames[count] = fileNames[slot];
+                    urls[slot] = dirs[slot] = fileNames[slot] = null; // Do not keep strings alive in the buffer
+                    tail++;
+                    count++;
+                }
+                notFull.signalAll();
+            }
+            catch (InterruptedException e)
+            {
+                running = open;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+
+            try
+            {
+                for (int i = 0; i < count; i++)
+                {
+                    line.setLength(0);
+                    line.append("{\"ts\":").append(batchTimestamps[i])
+                            .append(",\"event\":\"").append(batchEvents[i].name())
+                            .append("\",\"url\":");
+                    appendJSONString(line, batchUrls[i]);
+                    line.append(",\"status\":").append(batchStatuses[i])
+                            .append(",\"bytes\":").append(batchBytes[i])
+                            .append(",\"durationMicros\":").append(batchDurations[i] / 1000)
+                            .append(",\"path\":");
+                    appendJSONString(line, batchDirs[i] == null ? null : joinPath(batchDirs[i], batchFileNames[i]));
+                    line.append("}\n");
+                    writer.append(line);
+                }
+                if (count > 0)
+                {
+                    writer.flush();
+                }
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Joins a local directory and a file name as returned by DownloaderUtilities.getPath and getFileName.
+     * @param dir       Directory relative to the download root.
+     * @param fileName  File name, possibly prefixed with a slash.
+     * @return          The joined path, always using '/' as the separator.
+     */
+    static String joinPath(String dir, String fileName)
+    {
+        String path = dir.replace('\\', '/');
+        if (fileName == null || fileName.isEmpty())
+        {
+            return path;
+        }
+        return fileName.charAt(0) == '/' ? path + fileName : path + '/' + fileName;
+    }
+
+    /**
+     * Appends a string to a builder as a quoted JSON string literal, or as null.
+     * @param sb    Builder to append to.
+     * @param value String to append.
+     */
+    private static void appendJSONString(StringBuilder sb, String value)
+    {
+        if (value == null)
+        {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default ->
+                {
+                    if (c < 0x20)
+                    {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    }
+                    else
+                    {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
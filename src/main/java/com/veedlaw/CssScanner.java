@@ -0,0 +1,342 @@
+package com.veedlaw;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A single-pass scanner which finds the URL references of a stylesheet.
+ * Recognises url(...) tokens (quoted or unquoted) and the string form of @import, while skipping comments and
+ * unrelated strings. The scanner only walks forward through the text, so it runs in linear time on any input.
+ */
+public final class CssScanner
+{
+    /**
+     * A URL reference found in a stylesheet.
+     * start and end delimit the raw reference in the scanned text (without quotes), value is the unescaped URL.
+     */
+    public static final class Reference
+    {
+        public final int start;
+        public final int end;
+        public final String value;
+
+        private Reference(int start, int end, String value)
+        {
+            this.start = start;
+            this.end = end;
+            this.value = value;
+        }
+    }
+
+    private CssScanner()
+    {
+    }
+
+    /**
+     * Finds all URL references in a stylesheet or in the contents of an HTML style attribute.
+     * @param css   Text of the stylesheet.
+     * @return      References in the order they appear in the text.
+     */
+    public static List<Reference> scan(CharSequence css)
+    {
+        List<Reference> references = new ArrayList<>();
+        int length = css.length();
+        int i = 0;
+        while (i < length)
+        {
+            char c = css.charAt(i);
+            if (c == '/' && i + 1 < length && css.charAt(i + 1) == '*')
+            {
+                i = skipComment(css, i);
+            }
+            else if (c == '"' || c == '\'')
+            {
+                i = skipString(css, i); // Strings outside of url() and @import are not references
+            }
+            else if (c == '\\')
+            {
+                i += 2; // An escaped character can not start a token
+            }
+            else if (c == '@' && regionMatches(css, i + 1, "import"))
+            {
+                i = skipWhitespaceAndComments(css, i + 1 + "import".length());
+                if (i < length && (css.charAt(i) == '"' || css.charAt(i) == '\''))
+                {
+                    i = readString(css, i, references);
+                }
+                // The url(...) form of @import is picked up by the next iteration
+            }
+            else if ((c == 'u' || c == 'U') && regionMatches(css, i, "url(") && (i == 0 || !isNameChar(css.charAt(i - 1))))
+            {
+                i = readURLToken(css, i + "url(".length(), references);
+            }
+            else
+            {
+                i++;
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Replaces references in a stylesheet.
+     * @param css           Text of the stylesheet that was scanned.
+     * @param references    References found by scan in css.
+     * @param replacement   Returns the new text of a reference given its value, or null to keep the reference as is.
+     * @return              The stylesheet with the references replaced.
+     */
+    public static String rewrite(String css, List<Reference> references, Function<String, String> replacement)
+    {
+        StringBuilder sb = new StringBuilder(css.length() + 64);
+        int copied = 0;
+        for (Reference reference : references)
+        {
+            String newValue = replacement.apply(reference.value);
+            if (newValue == null)
+            {
+                continue;
+            }
+            sb.append(css, copied, reference.start).append(escape(newValue));
+            copied = reference.end;
+        }
+        sb.append(css, copied, css.length());
+        return sb.toString();
+    }
+
+    /**
+     * Reads the contents of a url( token, the scanner is positioned right after the opening parenthesis.
+     * @return Index after the closing parenthesis.
+     */
+    private static int readURLToken(CharSequence css, int i, List<Reference> references)
+    {
+        int length = css.length();
+        i = skipWhitespace(css, i);
+        if (i < length && (css.charAt(i) == '"' || css.charAt(i) == '\''))
+        {
+            i = readString(css, i, references);
+        }
+        else
+        {
+            int start = i;
+            StringBuilder value = new StringBuilder();
+            while (i < length)
+            {
+                char c = css.charAt(i);
+                if (c == ')' || Character.isWhitespace(c) || c == '"' || c == '\'')
+                {
+                    break;
+                }
+                if (c == '\\')
+                {
+                    i = readEscape(css, i, value);
+                }
+                else
+                {
+                    value.append(c);
+                    i++;
+                }
+            }
+            references.add(new Reference(start, i, value.toString()));
+        }
+
+        // Skip the remainder of the token, bad tokens end at the next closing parenthesis as well
+        while (i < length && css.charAt(i) != ')')
+        {
+            i++;
+        }
+        return i + 1;
+    }
+
+    /**
+     * Reads a quoted string and records it as a reference.
+     * @return Index after the closing quote.
+     */
+    private static int readString(CharSequence css, int i, List<Reference> references)
+    {
+        int length = css.length();
+        char quote = css.charAt(i);
+        int start = ++i;
+        StringBuilder value = new StringBuilder();
+        while (i < length)
+        {
+            char c = css.charAt(i);
+            if (c == quote || c == '\n')
+            {
+                break;
+            }
+            if (c == '\\')
+            {
+                i = readEscape(css, i, value);
+            }
+            else
+            {
+                value.append(c);
+                i++;
+            }
+        }
+        references.add(new Reference(start, Math.min(i, length), value.toString()));
+        return i + 1;
+    }
+
+    /**
+     * Decodes an escape sequence starting at the backslash at index i.
+     * @return Index after the escape sequence.
+     */
+    private static int readEscape(CharSequence css, int i, StringBuilder value)
+    {
+        int length = css.length();
+        i++;
+        if (i >= length)
+        {
+            return i;
+        }
+        int codePoint = 0;
+        int digits = 0;
+        while (i < length && digits < 6 && Character.digit(css.charAt(i), 16) >= 0)
+        {
+            codePoint = codePoint * 16 + Character.digit(css.charAt(i), 16);
+            digits++;
+            i++;
+        }
+        if (digits == 0)
+        {
+            char c = css.charAt(i);
+            if (c != '\n') // An escaped newline is a line continuation
+            {
+                value.append(c);
+            }
+            return i + 1;
+        }
+        if (i < length && Character.isWhitespace(css.charAt(i)))
+        {
+            i++; // A single whitespace terminates a hex escape
+        }
+        value.appendCodePoint(Character.isValidCodePoint(codePoint) && codePoint != 0 ? codePoint : 0xFFFD);
+        return i;
+    }
+
+    /**
+     * Skips a quoted string starting at the quote at index i.
+     * @return Index after the closing quote.
+     */
+    private static int skipString(CharSequence css, int i)
+    {
+        int length = css.length();
+        char quote = css.charAt(i++);
+        while (i < length)
+        {
+            char c = css.charAt(i);
+            if (c == '\\')
+            {
+                i += 2;
+                continue;
+            }
+            if (c == quote || c == '\n')
+            {
+                break;
+            }
+            i++;
+        }
+        return i + 1;
+    }
+
+    /**
+     * Skips a comment starting at index i.
+     * @return Index after the end of the comment.
+     */
+    private static int skipComment(CharSequence css, int i)
+    {
+        int length = css.length();
+        i += 2;
+        while (i + 1 < length && !(css.charAt(i) == '*' && css.charAt(i + 1) == '/'))
+        {
+            i++;
+        }
+        return i + 2;
+    }
+
+    /**
+     * @return Index of the first non-whitespace character at or after i.
+     */
+    private static int skipWhitespace(CharSequence css, int i)
+    {
+        while (i < css.length() && Character.isWhitespace(css.charAt(i)))
+        {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return Index of the first character at or after i which is neither whitespace nor part of a comment.
+     */
+    private static int skipWhitespaceAndComments(CharSequence css, int i)
+    {
+        int length = css.length();
+        while (true)
+        {
+            i = skipWhitespace(css, i);
+            if (i + 1 < length && css.charAt(i) == '/' && css.charAt(i + 1) == '*')
+            {
+                i = skipComment(css, i);
+            }
+            else
+            {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Case-insensitively tests whether css contains word at index i.
+     */
+    private static boolean regionMatches(CharSequence css, int i, String word)
+    {
+        if (i + word.length() > css.length())
+        {
+            return false;
+        }
+        for (int j = 0; j < word.length(); j++)
+        {
+            if (Character.toLowerCase(css.charAt(i + j)) != word.charAt(j))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return True if c may be a part of a CSS identifier.
+     */
+    private static boolean isNameChar(char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c >= 0x80;
+    }
+
+    /**
+     * Escapes characters which would end a url token or a string early.
+     */
+    private static String escape(String value)
+    {
+        StringBuilder sb = null;
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\'' || c == '(' || c == ')' || c == '\\' || Character.isWhitespace(c))
+            {
+                if (sb == null)
+                {
+                    sb = new StringBuilder(value.length() + 8).append(value, 0, i);
+                }
+                sb.append('\\').append(Integer.toHexString(c)).append(' ');
+            }
+            else if (sb != null)
+            {
+                sb.append(c);
+            }
+        }
+        return sb == null ? value : sb.toString();
+    }
+}
@@ -5,13 +5,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.logging.FileHandler;
-import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
+import java.util.concurrent.TimeUnit;
 
+import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 
 import javax.swing.*;
@@ -21,15 +24,10 @@ import javax.swing.*;
  */
 public class Downloader
 {
-    private static String rootDir; // Directory to which files are downloaded to
-
-    private static final Queue<String> discoveredURLs = new ArrayDeque<>(); // URLs which are yet to be downloaded
-    private static final Set<String> visitedURLs = new HashSet<>();
-
-    private static int numFilesDownloaded = 0;
-    private static String currentDownload = ""; // Is accessed via a getter method by the GUI for information displaying purposes.
-
-    private static final Logger logger = Logger.getLogger("DownloadLog");
+    // Budget and bandwidth limits of the next crawl run by runDownload or runClusterWorker. Every crawl gets a copy
+    // of the bandwidth limiter, so that its host buckets and debt do not carry over to the next crawl.
+    private static CrawlBudget budget = CrawlBudget.fromSystemProperties();
+    private static BandwidthLimiter bandwidth = BandwidthLimiter.fromSystemProperties();
 
     /**
      * Runs the main downloading loop. Dequeues addresses from the URL queue and downloads them until there are no more addresses to download.
@@ -37,79 +35,418 @@ public class Downloader
      * All URLs that are passed to this method have been checked to be valid URLs with HTTP(s) protocol.
      * @param url   An URL address to download and on which the search for additional links will be expanded on.
      * @param dir   Specifies in which directory the files will be saved.
+     * @return      A human-readable report of the used resources, detected traps and the URL metadata cache.
      */
-    public static void runDownload(String url, String dir)
+    public static String runDownload(String url, String dir)
     {
         if (! DownloaderUtilities.hasHTTPsProtocol(url))
         {
             url = "http://" + url;
         }
-        setUpLogging(dir, url);
+        Crawl crawl = new Crawl(url, dir, Crawl.Scope.PREFIX, null, budget, bandwidth.copy());
+        Crawl.setPrimary(crawl);
+        setUpLogging(dir, url, CrawlLog.LOG_FILE_NAME);
+        crawl.start(null, true);
+        try
+        {
+            while (crawlNext())
+            {
+                // Every step downloads one address.
+            }
+        }
+        finally
+        {
+            CrawlLog.close();
+            crawl.finish();
+        }
+        return report(crawl);
+    }
 
-        rootDir = dir;
-        DownloaderUtilities.setBaseURL(url);
+    /**
+     * Runs the downloading loop as one worker of a distributed crawl.
+     * The worker only downloads the addresses it owns; the rest are forwarded to their owners by enqueueURL.
+     * An empty queue does not end the loop, since other workers may still send addresses; the loop ends once
+     * the coordinator announces that the whole crawl is finished.
+     * @param url   The seed address of the crawl, the same for every worker.
+     * @param dir   Specifies in which directory the files will be saved.
+     * @param node  The cluster node of this worker.
+     * @return      A human-readable report of the used resources, detected traps and the URL metadata cache.
+     * @throws IOException If the worker can not join the cluster.
+     */
+    public static String runClusterWorker(String url, String dir, ClusterNode node) throws IOException
+    {
+        if (! DownloaderUtilities.hasHTTPsProtocol(url))
+        {
+            url = "http://" + url;
+        }
+        // The receiving thread of the node enqueues into the primary crawl.
+        Crawl crawl = new Crawl(url, dir, Crawl.Scope.PREFIX, null, budget, bandwidth.copy());
+        Crawl.setPrimary(crawl);
+        setUpLogging(dir, url, "crawl-log-" + node.getNodeId() + ".jsonl");
+        crawl.start("node" + node.getNodeId(), false);
+        crawl.cluster = node;
+        try
+        {
+            node.start();
+            enqueueURL(url); // Only the owner of the seed keeps it
+            node.joinCoordinator();
 
-        discoveredURLs.add(url);
-        String address;
-        while (! discoveredURLs.isEmpty())
+            String address;
+            while (! node.isTerminated())
+            {
+                createForwardedAliases(crawl);
+                address = crawl.pollAddress(100, TimeUnit.MILLISECONDS);
+                if (address == null)
+                    continue;
+                crawl.queuedURLs.remove(address);
+                // Once the budget is exhausted the queue is only drained, so that the cluster can still terminate.
+                if (! crawl.visitedURLs.contains(address) && ! crawl.budget.isExhausted())
+                    download(address);
+                node.workDone();
+            }
+        }
+        catch (InterruptedException e)
         {
-            address = discoveredURLs.remove();
-            if (! visitedURLs.contains(address))
-                download(address);
+            Thread.currentThread().interrupt();
         }
+        finally
+        {
+            crawl.cluster = null;
+            node.close();
+            CrawlLog.close();
+            crawl.finish();
+        }
+        return report(crawl);
     }
 
     /**
-     * Sets up logging capabilities for the downloader
-     * @param dir       Base directory of the download; used for placing the log file in the correct directory
-     * @param address   Address string of the initial download; used for placing the log file in th correct directory
+     * @param crawl A finished crawl.
+     * @return      A human-readable report of the crawl and the URL metadata cache.
      */
-    private static void setUpLogging(String dir, String address)
+    private static String report(Crawl crawl)
     {
-        try
+        return crawl.report() + System.lineSeparator() + URLMetadataCache.report();
+    }
+
+    /**
+     * Downloads the next queued address of the current crawl.
+     * Once the budget of the crawl is exhausted the remaining addresses are dropped and the crawl is finished.
+     * @return False if the crawl is finished, true if there may be more addresses to download.
+     */
+    static boolean crawlNext()
+    {
+        Crawl crawl = Crawl.current();
+        if (! crawl.hasQueuedAddresses())
         {
-            System.setProperty("java.util.logging.SimpleFormatter.format",
-                    "[%1$tF %1$tT] [%4$-7s] %5$s %n");
-            Files.createDirectories(Paths.get(dir, DownloaderUtilities.getPath(address)));
-            FileHandler fileHandler = new FileHandler(Paths.get(dir, DownloaderUtilities.getPath(address), "log.txt").toString());
-            logger.addHandler(fileHandler);
-            fileHandler.setFormatter(new SimpleFormatter());
-            logger.setUseParentHandlers(false);
+            return false;
         }
-        catch (IOException e)
+        if (crawl.budget.isExhausted())
+        {
+            // Stop gracefully; the remaining addresses are dropped.
+            CrawlLog.record(CrawlLog.Event.BUDGET_EXHAUSTED, crawl.peekAddress(), -1, 0, System.nanoTime(), null, null);
+            crawl.clearQueues();
+            return false;
+        }
+        String address = crawl.pollAddress();
+        if (address == null)
         {
-            e.printStackTrace();
+            return false;
         }
+        crawl.queuedURLs.remove(address);
+        if (! crawl.visitedURLs.contains(address))
+            download(address);
+        return true;
+    }
+
+    /**
+     * Sets up logging capabilities for the downloader.
+     * The crawl log is reopened on every call, so repeated downloads append to the log instead of multiplying writes.
+     * @param dir           Base directory of the download; used for placing the log file in the correct directory
+     * @param address       Address string of the initial download; used for placing the log file in th correct directory
+     * @param logFileName   Name of the log file.
+     */
+    private static void setUpLogging(String dir, String address, String logFileName)
+    {
+        CrawlLog.open(Paths.get(dir, DownloaderUtilities.getPath(address), logFileName));
     }
 
     /**
      * Downloads a single file from an address. The file is saved to disk.
      * If the file is an HTML document, it is then searched for links.
+     * Redirects are followed explicitly; if one leads to an address which has been visited or queued already, nothing
+     * is fetched and the local copy of the target is reused.
      * @param address   An URL address from which we wish to download from.
      */
     private static void download(String address)
     {
-        currentDownload = address;
-        visitedURLs.add(address);
-        if (DownloaderUtilities.isHTML(address))
+        Crawl crawl = Crawl.current();
+        long startNanos = System.nanoTime();
+        crawl.currentDownload = address;
+        crawl.visitedURLs.add(address);
+
+        List<String> redirectSources = new ArrayList<>();
+        HttpURLConnection connection; // self-note: not AutoCloseable
+        try
+        {
+            connection = openFollowingRedirects(address, redirectSources);
+        }
+        catch (IOException e)
         {
-            Document htmlDocument = DownloaderUtilities.fetchDocument(address);
+            URLMetadataCache.putFailure(address);
+            CrawlLog.record(CrawlLog.Event.CONNECT_FAILED, address, -1, 0, startNanos, null, null);
+            return;
+        }
+        if (connection == null)
+        {
+            String target = crawl.redirects.resolve(address);
+            CrawlLog.record(CrawlLog.Event.REDIRECT_DEDUPLICATED, address, -1, 0, startNanos,
+                    DownloaderUtilities.getPath(target), DownloaderUtilities.getFileName(target));
+            ClusterNode cluster = crawl.cluster;
+            for (String source : redirectSources)
+            {
+                // Only the owner of the target saves it, so only the owner can create the alias.
+                if (cluster != null && ! cluster.owns(target))
+                    cluster.forwardAlias(source, target);
+                else
+                    addAlias(source, target);
+            }
+            return;
+        }
+        String finalAddress = connection.getURL().toString();
+        rememberResponse(connection, address, finalAddress);
+
+        if (DownloaderUtilities.isHTMLContentType(connection.getContentType()))
+        {
+            // The page may have been linked to by another node of a distributed crawl, or reached by a redirect, so
+            // this node may not know its local name yet; the name only depends on the address.
+            DownloaderUtilities.registerLocalName(finalAddress);
+
+            Document htmlDocument;
+            try
+            {
+                htmlDocument = fetchDocument(connection, finalAddress);
+            }
+            catch (BudgetExceededException e)
+            {
+                budgetExceeded(e, finalAddress, -1, 0, startNanos);
+                return;
+            }
             if (htmlDocument != null)
             {
-                DownloaderUtilities.discoverURLs(htmlDocument);
-                downloadHTML(htmlDocument, address);
+                // Near-duplicate pages of a suspected trap are saved with their links localized, but no new
+                // addresses are taken from them.
+                boolean followLinks = true;
+                if (crawl.trapDetector.addPage(finalAddress, htmlDocument.text()))
+                {
+                    CrawlLog.record(CrawlLog.Event.NEAR_DUPLICATE, finalAddress, responseCode(connection), 0, startNanos,
+                            null, null);
+                    followLinks = ! crawl.trapDetector.isSuspected(finalAddress);
+                }
+                DownloaderUtilities.discoverURLs(htmlDocument, followLinks);
+                if (downloadHTML(htmlDocument, finalAddress, responseCode(connection), startNanos))
+                {
+                    createAliases(redirectSources, finalAddress, true);
+                }
             }
             else // We were unable to fetch the document
             {
                 // Since we were unable to fetch the HTML document, we will download the file manually
-                logger.info("Unable to fetch HTML from " + address + "; Initiating manual download");
-                downloadNonHTML(address);
+                CrawlLog.record(CrawlLog.Event.HTML_FALLBACK, finalAddress, -1, 0, startNanos, null, null);
+                if (downloadNonHTML(finalAddress, null, startNanos))
+                {
+                    createAliases(redirectSources, finalAddress, true);
+                }
+            }
+        }
+        else if (downloadNonHTML(finalAddress, connection, startNanos))
+        {
+            createAliases(redirectSources, finalAddress, false);
+        }
+    }
+
+    /**
+     * Stores the headers of a download response in the URLMetadataCache, so that links to the address met later
+     * do not have to probe it.
+     * @param connection    Connection with the final response.
+     * @param address       The downloaded address.
+     * @param finalAddress  Address the response came from after redirects.
+     */
+    private static void rememberResponse(HttpURLConnection connection, String address, String finalAddress)
+    {
+        int status;
+        try
+        {
+            status = connection.getResponseCode();
+        }
+        catch (IOException e)
+        {
+            URLMetadataCache.putFailure(address);
+            return;
+        }
+        String contentType = connection.getContentType();
+        long size = connection.getContentLengthLong();
+        URLMetadataCache.putResponse(address, contentType, status, size);
+        if (! finalAddress.equals(address))
+        {
+            URLMetadataCache.putResponse(finalAddress, contentType, status, size);
+        }
+    }
+
+    /**
+     * Opens a connection to an address and follows its redirects explicitly.
+     * Every redirect is recorded in the RedirectCache and every address on the way is marked as visited.
+     * @param address           An URL address from which we wish to download from.
+     * @param redirectSources   Receives the addresses which answered with a redirect, in order.
+     * @return                  Connection with the final response, or null if a redirect led to an address which has
+     *                          been visited or queued already, or which belongs to another node of a distributed crawl.
+     * @throws IOException If a connection fails or the redirects do not end.
+     */
+    private static HttpURLConnection openFollowingRedirects(String address, List<String> redirectSources) throws IOException
+    {
+        Crawl crawl = Crawl.current();
+        String current = address;
+        HttpURLConnection connection = DownloaderUtilities.openConnection(current);
+        for (int hop = 0; hop < DownloaderUtilities.MAX_REDIRECTS; hop++)
+        {
+            String target = DownloaderUtilities.getRedirectTarget(connection);
+            if (target == null)
+            {
+                return connection;
+            }
+            crawl.redirects.record(current, target);
+            redirectSources.add(current);
+            DownloaderUtilities.discardBody(connection);
+
+            if (crawl.visitedURLs.contains(target) || crawl.queuedURLs.contains(target)
+                    || (crawl.cluster != null && crawl.cluster.forward(target)))
+            {
+                return null;
             }
+            crawl.visitedURLs.add(target);
+            current = target;
+            connection = DownloaderUtilities.openConnection(current);
+        }
+        throw new IOException("Too many redirects from " + address);
+    }
+
+    /**
+     * Creates the aliases of the redirects sent by other nodes of a distributed crawl.
+     * @param crawl The crawl of this node.
+     */
+    private static void createForwardedAliases(Crawl crawl)
+    {
+        Map.Entry<String, String> alias;
+        while ((alias = crawl.forwardedAliases.poll()) != null)
+        {
+            addAlias(alias.getKey(), alias.getValue());
+            crawl.cluster.workDone();
+        }
+    }
+
+    /**
+     * Makes the local copy of a redirect target reachable under the local path of an address redirecting to it,
+     * since pages processed before the redirect was known link to that path.
+     * If the target has not been saved yet, this happens once it is.
+     * @param source    Address which redirects to target.
+     * @param target    Final address of the redirect.
+     */
+    private static void addAlias(String source, String target)
+    {
+        Path targetPath = getLocalPath(target);
+        if (targetPath != null && Files.exists(targetPath))
+        {
+            writeAlias(source, target, DownloaderUtilities.isKnownHTML(target));
         }
         else
         {
-            downloadNonHTML(address);
+            Crawl.current().pendingAliases.computeIfAbsent(target, key -> new ArrayList<>()).add(source);
+        }
+    }
+
+    /**
+     * Creates the local aliases of an address which has just been saved.
+     * @param redirectSources   Addresses which redirected to target while it was being downloaded.
+     * @param target            The saved address.
+     * @param isHTML            True if target is an HTML document.
+     */
+    private static void createAliases(List<String> redirectSources, String target, boolean isHTML)
+    {
+        List<String> waiting = Crawl.current().pendingAliases.remove(target);
+        if (waiting != null)
+        {
+            redirectSources.addAll(waiting);
+        }
+        for (String source : redirectSources)
+        {
+            writeAlias(source, target, isHTML);
+        }
+    }
+
+    /**
+     * Makes the local copy of target reachable under the local path of source, unless both paths are the same.
+     * HTML documents get a small page redirecting to the target, so that the relative links of the target keep
+     * working; other files are hard linked, which costs no disk space.
+     * @param source    Address which redirects to target.
+     * @param target    Final address of the redirect, already saved to disk.
+     * @param isHTML    True if target is an HTML document.
+     */
+    private static void writeAlias(String source, String target, boolean isHTML)
+    {
+        if (isHTML)
+        {
+            // Links to source were localized under its registered name, possibly by another node of the crawl.
+            DownloaderUtilities.registerLocalName(source);
+        }
+        Path sourcePath = getLocalPath(source);
+        Path targetPath = getLocalPath(target);
+        if (sourcePath == null || targetPath == null || sourcePath.equals(targetPath) || Files.exists(sourcePath))
+        {
+            return;
+        }
+        try
+        {
+            Files.createDirectories(sourcePath.getParent());
+            if (isHTML)
+            {
+                String link = DownloaderUtilities.getLocalLink(source, target)
+                        .replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;");
+                Files.writeString(sourcePath, "<!DOCTYPE html><html><head><meta charset=\"utf-8\">"
+                        + "<meta http-equiv=\"refresh\" content=\"0; url=" + link + "\"></head>"
+                        + "<body><a href=\"" + link + "\">" + link + "</a></body></html>\n", StandardCharsets.UTF_8);
+                Crawl.current().contentTypes.record(DownloaderUtilities.getPath(source), DownloaderUtilities.getFileName(source),
+                        "text/html; charset=utf-8");
+            }
+            else
+            {
+                try
+                {
+                    Files.createLink(sourcePath, targetPath);
+                }
+                catch (UnsupportedOperationException | IOException e)
+                {
+                    Files.copy(targetPath, sourcePath);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // The alias is only a convenience for links localized before the redirect was known.
+        }
+    }
+
+    /**
+     * Derives where the local copy of an address is stored.
+     * @param address   An URL address.
+     * @return          Path of the local copy, or null if none can be derived.
+     */
+    private static Path getLocalPath(String address)
+    {
+        String path = DownloaderUtilities.getPath(address);
+        if (path == null)
+        {
+            return null;
         }
+        return Paths.get(Crawl.current().rootDir, path, DownloaderUtilities.getFileName(address));
     }
 
     /**
@@ -117,10 +454,13 @@ public class Downloader
      * Additional processing may be necessary when dealing with tricky urls.
      * @param htmlDocument A JSoup Document object which we will be saving to the disk.
      * @param address The URL address from which the HTML document originates, used for file name derivation purposes.
+     * @param status HTTP status code of the response holding the document; used for the crawl log.
+     * @param startNanos System.nanoTime() at which handling of the address started; used for the crawl log.
+     * @return True if the document was saved.
      */
-    private static void downloadHTML(Document htmlDocument, String address)
+    private static boolean downloadHTML(Document htmlDocument, String address, int status, long startNanos)
     {
-        logger.info("Downloading HTML document from: " + address);
+        Crawl crawl = Crawl.current();
         // Save document to disk
         // The folder we are saving to is the name of the url
         String fileName = DownloaderUtilities.getFileName(address);
@@ -128,47 +468,220 @@ public class Downloader
 
         try
         {
-            Files.createDirectories(Paths.get(rootDir, path));
-            Files.writeString(Paths.get(rootDir, path, fileName), htmlDocument.html(), htmlDocument.charset());
-            numFilesDownloaded++;
+            byte[] content = htmlDocument.html().getBytes(htmlDocument.charset());
+            Files.createDirectories(Paths.get(crawl.rootDir, path));
+            Files.write(Paths.get(crawl.rootDir, path, fileName), content);
+            crawl.numFilesDownloaded++;
+            crawl.budget.addPage();
+            CrawlLog.record(CrawlLog.Event.HTML, address, status, content.length, startNanos, path, fileName);
+            crawl.contentTypes.record(path, fileName, "text/html; charset=" + htmlDocument.charset().name());
+            return true;
         }
         catch (IOException e)
         {
-            logger.severe("Unable to download: " + address);
+            CrawlLog.record(CrawlLog.Event.FAILED, address, status, 0, startNanos, null, null);
+            return false;
         }
     }
 
     /**
      * Downloads a non-HTML file.
      * @param address Address string from where we wish to download.
+     * @param connection An open connection to address, or null to open a new one.
+     * @param startNanos System.nanoTime() at which handling of the address started; used for the crawl log.
+     * @return True if the file was saved.
      */
-    private static void downloadNonHTML(String address)
+    private static boolean downloadNonHTML(String address, HttpURLConnection connection, long startNanos)
     {
-        logger.info("Downloading file from: " + address);
-        HttpURLConnection connection; // self-note: not AutoCloseable
+        Crawl crawl = Crawl.current();
+        if (connection == null)
+        {
+            try
+            {
+                connection = DownloaderUtilities.openConnection(address);
+            }
+            catch (IOException e)
+            {
+                CrawlLog.record(CrawlLog.Event.CONNECT_FAILED, address, -1, 0, startNanos, null, null);
+                return false;
+            }
+        }
+
+        LimitedInputStream limitedInputStream = null;
+        Path filePath = null;
         try
         {
-            connection = (HttpURLConnection) (new URL(address)).openConnection();
+            long fileLimit = crawl.budget.checkResponse(connection.getContentType(), connection.getContentLengthLong());
+            limitedInputStream = crawl.budget.limit(throttle(connection), fileLimit);
+        }
+        catch (BudgetExceededException e)
+        {
+            connection.disconnect(); // Do not transfer the rejected body
+            budgetExceeded(e, address, responseCode(connection), 0, startNanos);
+            return false;
         }
         catch (IOException e)
         {
-            logger.severe("Unable to connect to: " + address);
-            return;
+            CrawlLog.record(CrawlLog.Event.FAILED, address, responseCode(connection), 0, startNanos, null, null);
+            return false;
         }
 
-        try (InputStream urlConnectionInputStream = new BufferedInputStream(connection.getInputStream()))
+        try (InputStream urlConnectionInputStream = new BufferedInputStream(limitedInputStream))
         {
             // transfer file directly to disk
             String fileName = DownloaderUtilities.getFileName(address);
             String path = DownloaderUtilities.getPath(address);
-            Files.createDirectories(Paths.get(rootDir, path));
-            Files.copy(urlConnectionInputStream, Paths.get(rootDir, path, fileName));
+            Files.createDirectories(Paths.get(crawl.rootDir, path));
+            filePath = Paths.get(crawl.rootDir, path, fileName);
+            long bytes;
+            if (DownloaderUtilities.isCSS(address, connection.getContentType()))
+            {
+                // Stylesheets are searched for further assets, which are then referenced locally.
+                Charset charset = DownloaderUtilities.getCharset(connection.getContentType());
+                String css = new String(urlConnectionInputStream.readAllBytes(), charset);
+                byte[] content = DownloaderUtilities.discoverCSSURLs(css, address).getBytes(charset);
+                Files.write(filePath, content);
+                bytes = content.length;
+            }
+            else
+            {
+                bytes = Files.copy(urlConnectionInputStream, filePath);
+            }
+
+            crawl.numFilesDownloaded++;
+            CrawlLog.record(CrawlLog.Event.FILE, address, connection.getResponseCode(), bytes, startNanos, path, fileName);
+            crawl.contentTypes.record(path, fileName, connection.getContentType());
+            return true;
+        }
+        catch (BudgetExceededException e)
+        {
+            deletePartialFile(filePath);
+            budgetExceeded(e, address, responseCode(connection), limitedInputStream.getCount(), startNanos);
+            return false;
+        }
+        catch (FileAlreadyExistsException e)
+        {
+            CrawlLog.record(CrawlLog.Event.FAILED, address, responseCode(connection), 0, startNanos, null, null);
+            return false;
+        }
+        catch (IOException e)
+        {
+            deletePartialFile(filePath);
+            CrawlLog.record(CrawlLog.Event.FAILED, address, responseCode(connection), 0, startNanos, null, null);
+            return false;
+        }
+        finally
+        {
+            crawl.budget.addBytes(limitedInputStream.getCount());
+        }
+    }
+
+    /**
+     * Opens the response body of a connection, limited by the bandwidth limits.
+     * @param connection    Connection with the response.
+     * @return              The throttled response body.
+     * @throws IOException If the body can not be opened.
+     */
+    private static InputStream throttle(HttpURLConnection connection) throws IOException
+    {
+        return Crawl.current().bandwidth.throttle(connection.getInputStream(), connection.getURL().getAuthority());
+    }
+
+    /**
+     * Fetches and parses an HTML document while enforcing the crawl budget.
+     * @param connection    Connection with the response holding the document.
+     * @param address       Final address of the document, against which relative links are resolved.
+     * @return              The parsed document, or null if it could not be fetched.
+     * @throws BudgetExceededException If the document was rejected or aborted for exceeding the budget.
+     */
+    private static Document fetchDocument(HttpURLConnection connection, String address) throws BudgetExceededException
+    {
+        Crawl crawl = Crawl.current();
+        LimitedInputStream in = null;
+        try
+        {
+            String contentType = connection.getContentType();
+            long fileLimit = crawl.budget.checkResponse(contentType, connection.getContentLengthLong());
+            in = crawl.budget.limit(throttle(connection), fileLimit);
+            return Jsoup.parse(in, DownloaderUtilities.getCharsetName(contentType), address);
+        }
+        catch (BudgetExceededException e)
+        {
+            throw e;
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        finally
+        {
+            if (in != null)
+            {
+                crawl.budget.addBytes(in.getCount());
+                try
+                {
+                    in.close();
+                }
+                catch (IOException ignored)
+                {
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a download which exceeded the budget.
+     * Files over a size limit are only skipped; if the budget of the whole crawl is exhausted the downloading loop
+     * stops before the next address.
+     * @param e             The exception describing the exceeded limit.
+     * @param address       Address which was being downloaded.
+     * @param status        HTTP status code of the response, or -1 if unknown.
+     * @param bytes         Number of bytes transferred before the download was aborted.
+     * @param startNanos    System.nanoTime() at which handling of the address started.
+     */
+    private static void budgetExceeded(BudgetExceededException e, String address, int status, long bytes, long startNanos)
+    {
+        if (! e.isCrawlExhausted())
+        {
+            Crawl.current().budget.addRejectedFile();
+        }
+        CrawlLog.record(CrawlLog.Event.REJECTED, address, status, bytes, startNanos, null, null);
+    }
+
+    /**
+     * Removes a partially written file after an aborted download.
+     * @param filePath  Path of the file, or null if no file was created.
+     */
+    private static void deletePartialFile(Path filePath)
+    {
+        if (filePath == null)
+        {
+            return;
+        }
+        try
+        {
+            Files.deleteIfExists(filePath);
+        }
+        catch (IOException ignored)
+        {
+            // Nothing else can be done about it.
+        }
+    }
 
-            numFilesDownloaded++;
+    /**
+     * Reads the status code of a response without failing.
+     * @param connection    Connection whose status code is read.
+     * @return              The HTTP status code, or -1 if it cannot be determined.
+     */
+    private static int responseCode(HttpURLConnection connection)
+    {
+        try
+        {
+            return connection.getResponseCode();
         }
         catch (IOException e)
         {
-            logger.severe("Failed to download from: " + address);
+            return -1;
         }
     }
 
@@ -190,16 +703,41 @@ public class Downloader
      */
     public static boolean visited(String address)
     {
-        return visitedURLs.contains(address);
+        return Crawl.current().visitedURLs.contains(address);
     }
 
     /**
      * Allows to enqueue an address from the DownloaderUtilities class.
+     * In a distributed crawl, addresses owned by another worker are forwarded to that worker instead.
      * @param address An URL address which we wish to enqueue.
      */
     public static void enqueueURL(String address)
     {
-        discoveredURLs.add(address);
+        Crawl crawl = Crawl.current();
+        if (crawl.cluster != null && crawl.cluster.forward(address))
+        {
+            return;
+        }
+        crawl.enqueue(address);
+    }
+
+    /**
+     * Enqueues an address to be downloaded by this process, regardless of which worker owns it.
+     * @param address An URL address which we wish to enqueue.
+     */
+    static void enqueueLocalURL(String address)
+    {
+        Crawl.current().enqueue(address);
+    }
+
+    /**
+     * Queues a redirect sent by another node of a distributed crawl, whose target is owned by this node.
+     * @param source    Address which redirects to target.
+     * @param target    Final address of the redirect.
+     */
+    static void enqueueForwardedAlias(String source, String target)
+    {
+        Crawl.current().enqueueForwardedAlias(source, target);
     }
 
     /**
@@ -207,16 +745,65 @@ public class Downloader
      * @return Integer value of number of files saved to disk.
      */
     public static int getNumFilesDownloaded() {
-        return numFilesDownloaded;
+        return Crawl.current().getNumFilesDownloaded();
     }
 
     /**
      * Allows the View class to read the size of the current download queue.
-     * @return Size of discoveredURLs queue.
+     * @return Size of discoveredURLs and deferredURLs queues.
      */
     public static int getNumFilesToBeDownloaded()
     {
-        return discoveredURLs.size();
+        return Crawl.current().getNumQueued();
+    }
+
+    /**
+     * Replaces the bandwidth limits used by subsequently started crawls; each of them gets a copy of the limiter.
+     * @param limiter The limiter holding the new limits.
+     */
+    public static void setBandwidthLimiter(BandwidthLimiter limiter)
+    {
+        bandwidth = limiter;
+    }
+
+    /**
+     * @return The limiter holding the bandwidth limits of subsequently started crawls.
+     */
+    public static BandwidthLimiter getBandwidthLimiter()
+    {
+        return bandwidth;
+    }
+
+    /**
+     * Changes the crawl and host limits of subsequently started crawls and of the running one, if any.
+     * @param crawlRate Bytes per second of the whole crawl, or TokenBucket.UNLIMITED.
+     * @param hostRate  Bytes per second from each host, or TokenBucket.UNLIMITED.
+     */
+    public static void setBandwidthLimits(long crawlRate, long hostRate)
+    {
+        bandwidth.setCrawlLimit(crawlRate);
+        bandwidth.setHostLimit(hostRate);
+        BandwidthLimiter running = Crawl.getPrimary().getBandwidthLimiter();
+        running.setCrawlLimit(crawlRate);
+        running.setHostLimit(hostRate);
+    }
+
+    /**
+     * Replaces the budget used by subsequently started crawls.
+     * @param crawlBudget The new budget.
+     */
+    public static void setBudget(CrawlBudget crawlBudget)
+    {
+        budget = crawlBudget;
+    }
+
+    /**
+     * Allows the View class to report on the budget of the last download.
+     * @return The budget of the current or last download.
+     */
+    public static CrawlBudget getBudget()
+    {
+        return budget;
     }
 
     /**
@@ -224,6 +811,6 @@ public class Downloader
      * @return Address string of currently downloaded page.
      */
     public static String getCurrentDownload() {
-        return currentDownload;
+        return Crawl.current().getCurrentDownload();
     }
 }
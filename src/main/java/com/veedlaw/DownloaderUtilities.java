@@ -1,35 +1,54 @@
 package com.veedlaw;
 
-import org.jsoup.Jsoup;
+import org.jsoup.nodes.DataNode;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
 /**
  * Contains various useful helper methods for downloading webpages.
  */
 public class DownloaderUtilities
 {
-    private static String baseURL = null;
-
     private static final String HTTP = "http://";
     private static final String HTTPS = "https://";
     private static final String INDEX_HTML = "index.html";
     private static final String CONTENT_TYPE_HTML = "text/html";
-
-    // Used as a cache for addresses that have been verified to be of the content-type "text/html"
-    private static final HashSet<String> htmlAddresses = new HashSet<>();
-
-    // Used as a mapping between URLs and local URLs (preserving directory structure)
-    private static final HashMap<String, String> renameMap = new HashMap<>();
+    private static final String CONTENT_TYPE_CSS = "text/css";
+    public static final int MAX_REDIRECTS = 10;
+
+    // Elements that contain outgoing links that we are looking to follow, paired with the attribute holding the link.
+    private static final String[][] LINK_ATTRIBUTES = {
+            {"a[href]", "href"},
+            {"link[href]", "href"},
+            {"img[src]", "src"},
+            {"script[src]", "src"},
+            {"iframe[src]", "src"},
+            {"source[src]", "src"},
+            {"video[src]", "src"},
+            {"video[poster]", "poster"},
+            {"audio[src]", "src"},
+            {"track[src]", "src"},
+            {"embed[src]", "src"},
+            {"input[type=image][src]", "src"}
+    };
 
     /**
      * Takes an address string and returns that string with the HTTP(s) scheme removed.
@@ -52,6 +71,33 @@ public class DownloaderUtilities
         return null;
     }
 
+    /**
+     * Brings an address to a canonical form, so that different spellings of the same address compare equal:
+     * the scheme and host are lower-cased, the default port and the fragment are removed and an empty path becomes "/".
+     * @param address   An URL address with HTTP(s) scheme.
+     * @return          The canonical form of the address, or the address itself if it can not be parsed.
+     */
+    public static String canonicalizeURL(String address)
+    {
+        URL url;
+        try
+        {
+            url = new URL(address);
+        }
+        catch (MalformedURLException e)
+        {
+            return address;
+        }
+        String protocol = url.getProtocol().toLowerCase(Locale.ROOT);
+        int port = url.getPort();
+        if (port == url.getDefaultPort())
+        {
+            port = -1;
+        }
+        String file = url.getFile().isEmpty() ? "/" : url.getFile();
+        return protocol + "://" + url.getHost().toLowerCase(Locale.ROOT) + (port == -1 ? "" : ":" + port) + file;
+    }
+
     /**
      * Checks whether the passed address is prefixed with either "http://" or "https://".
      * @param address   Address string
@@ -67,58 +113,159 @@ public class DownloaderUtilities
      * Opens a URLConnection to a URL from which it gets the URL's content-type header
      * and compares it to the string "html/text", which specifies that the the kind of document
      * is of HyperText Markup Language.
+     * The outcome, including a failure, is kept in the URLMetadataCache, so every address is probed at most once.
      * @param address   An URL address string to which to connect to.
      * @return          True if the content-type of the webpage is "html/text", false otherwise.
      */
     public static boolean isHTML(String address)
     {
-        if (htmlAddresses.contains(address)) // Checking within cached addresses
+        URLMetadataCache.Metadata entry = URLMetadataCache.get(address); // Checking within cached addresses
+        boolean known = entry != null && entry.isResponseKnown();
+        URLMetadataCache.countLookup(known);
+        if (known)
         {
-            return true;
+            return entry.isHTML();
         }
 
-        String receivedContentType;
         try
         {
-            String contentTypeResponse = ((new URL(address)).openConnection()).getContentType();
-            if (contentTypeResponse == null || contentTypeResponse.length() < CONTENT_TYPE_HTML.length())
+            // Redirects are followed explicitly so that they are remembered for the localization of later links.
+            String current = address;
+            HttpURLConnection connection = openConnection(current);
+            for (int hop = 0; hop < MAX_REDIRECTS; hop++)
+            {
+                String target = getRedirectTarget(connection);
+                if (target == null)
+                {
+                    break;
+                }
+                Crawl.current().redirects.record(current, target);
+                discardBody(connection);
+                current = target;
+                connection = openConnection(current);
+            }
+            String contentType = connection.getContentType();
+            int status = connection.getResponseCode();
+            long size = connection.getContentLengthLong();
+            connection.disconnect(); // Only the headers were needed
+
+            // The address is remembered with the outcome of its redirects, just as a followed link would see it.
+            URLMetadataCache.putResponse(address, contentType, status, size);
+            if (! current.equals(address))
             {
-                return false;
+                URLMetadataCache.putResponse(current, contentType, status, size);
             }
-
-            receivedContentType = contentTypeResponse.substring(0, CONTENT_TYPE_HTML.length());
+            return isHTMLContentType(contentType);
         }
         catch (IOException e)
         {
+            URLMetadataCache.putFailure(address);
             return false;
         }
-        boolean isHtml = CONTENT_TYPE_HTML.equals(receivedContentType);
+    }
 
-        // Cache the true responses.
-        if (isHtml)
+    /**
+     * Tests whether an address is already known to serve HTML, without connecting to it.
+     * @param address   An URL address string.
+     * @return          True if the address has been verified to be of the content-type "text/html".
+     */
+    public static boolean isKnownHTML(String address)
+    {
+        URLMetadataCache.Metadata entry = URLMetadataCache.get(address);
+        return entry != null && entry.isHTML();
+    }
+
+    /**
+     * Opens a connection which does not follow redirects on its own.
+     * @param address   An URL address string to which to connect to.
+     * @return          The connection; the request is sent once the response is first accessed.
+     * @throws IOException If the connection can not be opened.
+     */
+    public static HttpURLConnection openConnection(String address) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) (new URL(address)).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        return connection;
+    }
+
+    /**
+     * Reads the target of a redirect response.
+     * @param connection    A connection opened by openConnection.
+     * @return              The absolute address the response redirects to without a fragment, or null if the response
+     *                      is not a redirect.
+     * @throws IOException If the response can not be read.
+     */
+    public static String getRedirectTarget(HttpURLConnection connection) throws IOException
+    {
+        int status = connection.getResponseCode();
+        String location = connection.getHeaderField("Location");
+        if (status < 300 || status >= 400 || location == null)
         {
-            htmlAddresses.add(address);
+            return null;
         }
-
-        return isHtml;
+        return resolveReference(location, connection.getURL().toString());
     }
 
     /**
-     * Fetches an HTML document from an URL using the JSoup library.
-     * An IOException may be thrown if something goes wrong while connecting to the URL address.
-     * If an IOException occurs, null is returned to signal inability to fetch the document.
-     * @param address    An URL address from which to fetch the HTML document from.
-     * @return           A JSoup document from the located at address URL; or null.
+     * Finishes a response whose body is not needed, such as a redirect.
+     * Small bodies are read so that the connection can be reused, others are abandoned.
+     * @param connection    The connection.
      */
-    public static Document fetchDocument(String address)
+    public static void discardBody(HttpURLConnection connection)
     {
-        try
+        if ("HEAD".equals(connection.getRequestMethod()))
+        {
+            return; // There is no body, whatever Content-Length says
+        }
+        long length = connection.getContentLengthLong();
+        if (length < 0 || length > 64 * 1024)
+        {
+            connection.disconnect();
+            return;
+        }
+        try (InputStream in = connection.getResponseCode() >= 400 ? connection.getErrorStream() : connection.getInputStream())
         {
-            return Jsoup.connect(address).get();
+            if (in != null)
+            {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
         }
         catch (IOException e)
         {
-            return null;
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @param contentType   Value of a content-type header, may be null.
+     * @return              True if the header describes an HTML document.
+     */
+    public static boolean isHTMLContentType(String contentType)
+    {
+        return contentType != null && contentType.regionMatches(true, 0, CONTENT_TYPE_HTML, 0, CONTENT_TYPE_HTML.length());
+    }
+
+    /**
+     * Gives an HTML address with an ambiguous suffix a local name a browser opens as a page: index.html inside the
+     * directory if the address is a directory, the address with ".html" appended otherwise.
+     * The name only depends on the address, so links localized by localizeLink lead to the saved file, also when the
+     * page is saved by another node of a distributed crawl. Downloader registers the name of every HTML page it saves.
+     * @param address   An URL address known to serve HTML.
+     */
+    public static void registerLocalName(String address)
+    {
+        Map<String, String> renameMap = Crawl.current().renameMap;
+        if (renameMap.containsKey(address) || !hasAmbiguousSuffix(address))
+        {
+            return;
+        }
+        if (isDirectory(address))
+        {
+            renameMap.put(address, address.endsWith("/") ? address + INDEX_HTML : address + "/" + INDEX_HTML);
+        }
+        else
+        {
+            renameMap.put(address, address + ".html");
         }
     }
 
@@ -129,7 +276,16 @@ public class DownloaderUtilities
      */
     private static boolean mayBeVisited(String address)
     {
-        return isOnSameDomain(baseURL, address) && !Downloader.visited(address);
+        return Crawl.current().isInScope(address) && !Downloader.visited(address);
+    }
+
+    /**
+     * @param address   URL address which we wish to check.
+     * @return          True if the current crawl has visited the address or queued it, so it will have a local copy.
+     */
+    private static boolean isKnownToCrawl(String address)
+    {
+        return Downloader.visited(address) || Crawl.current().queuedURLs.contains(address);
     }
 
     /**
@@ -152,30 +308,293 @@ public class DownloaderUtilities
     }
 
     /**
-     *  The method is passed a JSoup Document, a JSoup Elements object, which contains Element objects in which we search
-     *  for links, and an attribute key which specifies which part of the HTML element holds a URL address. Implicitly
-     *  populates the queue with new addresses that are extracted from the elements in the process via a helper method.
+     *  Searches a JSoup Document for links to other pages and to the assets the page needs: link attributes of elements,
+     *  srcset candidates, inline style attributes and style elements. Implicitly populates the queue with new addresses
+     *  that are extracted from the document and rewrites the found links to point to the local copies.
      * @param htmlDocument  A JSoup document in which links are searched for.
      */
     public static void discoverURLs(Document htmlDocument)
     {
-        // Elements that contain outgoing links that we are looking to follow:
-        Elements[] outgoingElements = new Elements[] {
-                htmlDocument.select("a[href]"),
-                htmlDocument.select("img"),
-                htmlDocument.select("link[href]")
-        };
+        discoverURLs(htmlDocument, true);
+    }
+
+    /**
+     * Like discoverURLs, but optionally without queueing new addresses, as for the near-duplicate pages of a suspected
+     * crawler trap. Links are then only localized if the crawl has visited or queued their addresses, so that they
+     * lead to a local copy; the other links of the site are made absolute.
+     * @param htmlDocument  A JSoup document in which links are searched for.
+     * @param followLinks   False if no new addresses are to be queued.
+     */
+    public static void discoverURLs(Document htmlDocument, boolean followLinks)
+    {
+        for (String[] linkAttribute : LINK_ATTRIBUTES)
+        {
+            discoverLinksFromHTMLElements(htmlDocument.select(linkAttribute[0]), "abs:" + linkAttribute[1],
+                    followLinks);
+        }
+
+        String pageAddress = htmlDocument.location();
+        for (Element element : htmlDocument.select("[srcset]"))
+        {
+            element.attr("srcset", rewriteSrcset(element.attr("srcset"),
+                    reference -> discoverAssetURL(reference, pageAddress, followLinks)));
+        }
+        for (Element element : htmlDocument.select("[style]"))
+        {
+            element.attr("style", discoverCSSURLs(element.attr("style"), pageAddress, followLinks));
+        }
+        for (Element element : htmlDocument.select("style"))
+        {
+            for (DataNode dataNode : element.dataNodes())
+            {
+                dataNode.setWholeData(discoverCSSURLs(dataNode.getWholeData(), pageAddress, followLinks));
+            }
+        }
+    }
+
+    /**
+     * Enqueues the addresses referenced by a stylesheet and rewrites the references to point to the local copies.
+     * References outside of the downloaded site are made absolute, so that they keep working from the local copy.
+     * @param css           Text of a stylesheet, or of an HTML style attribute.
+     * @param cssAddress    Address of the stylesheet, or of the page containing it; relative references are resolved
+     *                      against this address.
+     * @return              The stylesheet with its references rewritten.
+     */
+    public static String discoverCSSURLs(String css, String cssAddress)
+    {
+        return discoverCSSURLs(css, cssAddress, true);
+    }
+
+    /**
+     * @param css           Text of a stylesheet, or of an HTML style attribute.
+     * @param cssAddress    Address of the stylesheet, or of the page containing it.
+     * @param followLinks   False if no new addresses are to be queued, see discoverURLs.
+     * @return              The stylesheet with its references rewritten.
+     */
+    private static String discoverCSSURLs(String css, String cssAddress, boolean followLinks)
+    {
+        List<CssScanner.Reference> references = CssScanner.scan(css);
+        if (references.isEmpty())
+        {
+            return css;
+        }
+        return CssScanner.rewrite(css, references, reference -> discoverAssetURL(reference, cssAddress, followLinks));
+    }
+
+    /**
+     * Collects the absolute addresses of all links and assets referenced by a document, without modifying it.
+     * Looks at the same places as discoverURLs.
+     * @param htmlDocument  A JSoup document in which links are searched for.
+     * @return              The referenced HTTP(s) addresses, without fragments.
+     */
+    public static Set<String> collectLinks(Document htmlDocument)
+    {
+        Set<String> links = new LinkedHashSet<>();
+        String pageAddress = htmlDocument.location();
+        for (String[] linkAttribute : LINK_ATTRIBUTES)
+        {
+            for (Element element : htmlDocument.select(linkAttribute[0]))
+            {
+                addResolved(links, element.attr(linkAttribute[1]), pageAddress);
+            }
+        }
+        for (Element element : htmlDocument.select("[srcset]"))
+        {
+            rewriteSrcset(element.attr("srcset"), reference -> addResolved(links, reference, pageAddress));
+        }
+        for (Element element : htmlDocument.select("[style]"))
+        {
+            for (CssScanner.Reference reference : CssScanner.scan(element.attr("style")))
+            {
+                addResolved(links, reference.value, pageAddress);
+            }
+        }
+        for (Element element : htmlDocument.select("style"))
+        {
+            for (CssScanner.Reference reference : CssScanner.scan(element.data()))
+            {
+                addResolved(links, reference.value, pageAddress);
+            }
+        }
+        return links;
+    }
+
+    /**
+     * A helper method for collectLinks. Resolves a reference and adds it to links if it is an HTTP(s) address.
+     * @param links         Set of collected addresses.
+     * @param reference     The reference as found in the document.
+     * @param baseAddress   Address against which the reference is resolved.
+     * @return              Always null, so that the method can serve as a srcset replacement function.
+     */
+    private static String addResolved(Set<String> links, String reference, String baseAddress)
+    {
+        String address = resolveReference(reference, baseAddress);
+        if (address != null && hasHTTPsProtocol(address))
+        {
+            links.add(address);
+        }
+        return null;
+    }
 
-        for (Elements elements : outgoingElements)
+    /**
+     * Passes the candidate URLs of a srcset attribute to a replacement function and builds the new attribute value.
+     * @param srcset        Value of the srcset attribute.
+     * @param replacement   Returns the new form of a candidate URL, or null to keep it as is.
+     * @return              The new value of the srcset attribute.
+     */
+    private static String rewriteSrcset(String srcset, Function<String, String> replacement)
+    {
+        StringBuilder sb = new StringBuilder(srcset.length() + 32);
+        int length = srcset.length();
+        int i = 0;
+        while (i < length)
         {
-            String type = null;
-            if (!elements.isEmpty())
+            // Candidates are separated by commas and whitespace; the URL runs until the next whitespace.
+            int start = i;
+            while (i < length && (Character.isWhitespace(srcset.charAt(i)) || srcset.charAt(i) == ','))
+            {
+                i++;
+            }
+            sb.append(srcset, start, i);
+            start = i;
+            while (i < length && !Character.isWhitespace(srcset.charAt(i)))
             {
-                type = elements.get(0).tag().toString();
+                i++;
             }
-            // Comparison checks whether the destination is an image or a normal link and sets the attributeKey accordingly.
-            discoverLinksFromHTMLElements(elements, "img".equals(type) ? "abs:src" : "abs:href");
+            int end = i;
+            while (end > start && srcset.charAt(end - 1) == ',') // A trailing comma is not a part of the URL
+            {
+                end--;
+            }
+            if (end > start)
+            {
+                String newURL = replacement.apply(srcset.substring(start, end));
+                sb.append(newURL == null ? srcset.substring(start, end) : newURL);
+            }
+            sb.append(srcset, end, i);
+
+            // The descriptor runs until the next comma which is not inside parentheses.
+            start = i;
+            int depth = 0;
+            while (i < length && (depth > 0 || srcset.charAt(i) != ','))
+            {
+                char c = srcset.charAt(i);
+                if (c == '(')
+                {
+                    depth++;
+                }
+                else if (c == ')' && depth > 0)
+                {
+                    depth--;
+                }
+                i++;
+            }
+            sb.append(srcset, start, i);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Handles a single asset reference found outside of the link attributes of elements.
+     * Enqueues the address if it may be visited and returns the new form of the reference.
+     * @param reference     The reference as found in the document.
+     * @param baseAddress   Address against which the reference is resolved.
+     * @param followLinks   False if no new addresses are to be queued, see discoverURLs.
+     * @return              Local link to the asset if it belongs to the downloaded site, the absolute address if it
+     *                      does not, or null if the reference should be kept as is.
+     */
+    private static String discoverAssetURL(String reference, String baseAddress, boolean followLinks)
+    {
+        String address = resolveReference(reference, baseAddress);
+        if (address == null)
+        {
+            return null;
+        }
+        address = Crawl.current().redirects.resolve(address);
+        if (!hasHTTPsProtocol(address) || !Crawl.current().isInScope(address)
+                || (!followLinks && !isKnownToCrawl(address)))
+        {
+            return address;
         }
+        if (followLinks && mayBeVisited(address))
+        {
+            Downloader.enqueueURL(address);
+        }
+        return getLocalLink(baseAddress, address);
+    }
+
+    /**
+     * Resolves a reference found in a document against the document's address.
+     * @param reference     The reference as found in the document.
+     * @param baseAddress   Address against which the reference is resolved.
+     * @return              The absolute address without a fragment, or null if the reference does not point to another
+     *                      resource (empty, fragment-only, data: or javascript: references) or is malformed.
+     */
+    private static String resolveReference(String reference, String baseAddress)
+    {
+        reference = reference.trim();
+        if (reference.isEmpty() || reference.startsWith("#") || reference.startsWith("data:")
+                || reference.startsWith("javascript:") || reference.startsWith("about:"))
+        {
+            return null;
+        }
+
+        String address;
+        try
+        {
+            address = new URL(new URL(baseAddress), reference).toString();
+        }
+        catch (MalformedURLException e)
+        {
+            return null;
+        }
+        int hashIndex = address.indexOf('#');
+        return hashIndex == -1 ? address : address.substring(0, hashIndex);
+    }
+
+    /**
+     * Derives a link that leads from the local copy of one address to the local copy of another.
+     * @param fromAddress   Address of the document that contains the link.
+     * @param toAddress     Address the link points to.
+     * @return              A relative link using '/' as the separator, or null if a local path can not be derived.
+     */
+    public static String getLocalLink(String fromAddress, String toAddress)
+    {
+        String fromPath = getPath(fromAddress);
+        String toPath = getPath(toAddress);
+        if (fromPath == null || toPath == null)
+        {
+            return null;
+        }
+        String toFileName = getFileName(toAddress);
+        if (toFileName.startsWith("/"))
+        {
+            toFileName = toFileName.substring(1);
+        }
+
+        String link = Paths.get(fromPath).relativize(Paths.get(toPath, toFileName)).toString();
+        if (!File.separator.equals("/"))
+        {
+            link = link.replace(File.separator, "/");
+        }
+        // A question mark is a part of the local file name, it must not be read as the start of a query.
+        return link.replace("?", "%3F");
+    }
+
+    /**
+     * Tests whether a response describes a stylesheet, either by its content-type or by the suffix of its address.
+     * @param address       Address of the response.
+     * @param contentType   Value of the content-type header, may be null.
+     * @return              True if the response is a stylesheet.
+     */
+    public static boolean isCSS(String address, String contentType)
+    {
+        if (contentType != null && contentType.regionMatches(true, 0, CONTENT_TYPE_CSS, 0, CONTENT_TYPE_CSS.length()))
+        {
+            return true;
+        }
+        int queryIndex = address.indexOf('?');
+        return (queryIndex == -1 ? address : address.substring(0, queryIndex)).endsWith(".css");
     }
 
     /**
@@ -185,32 +604,85 @@ public class DownloaderUtilities
      * queue with new addresses that are extracted.
      * @param elements      A list of HTML Elements in which we looks for links.
      * @param attrKey       Specifies attributeKey for extracting link from an element.
+     * @param followLinks   False if no new addresses are to be queued, see discoverURLs.
      */
-    private static void discoverLinksFromHTMLElements(Elements elements, String attrKey)
+    private static void discoverLinksFromHTMLElements(Elements elements, String attrKey, boolean followLinks)
     {
         String address; // Will be reused and assigned addresses which are discovered when going through the elements.
         for (Element element : elements)
         {
             // An URL address is found some attribute of the html element. An appropriate attribute is selected via attrKey.
             address = element.attr(attrKey);
-            if (renameMap.containsKey(address))
+            // "hash href-s" are local href-s within the same page - they navigate to different HTML elements and
+            // as such, they are not valid links to download.
+            if (element.attr("href").startsWith("#"))
+            {
+                continue;
+            }
+
+            // Links to addresses known to redirect are pointed straight at the target.
+            String target = Crawl.current().redirects.resolve(address);
+            if (!target.equals(address))
+            {
+                element.attr(attrKey.substring("abs:".length()), target);
+                address = target;
+            }
+
+            if (followLinks && mayBeVisited(address))
+            {
+                Downloader.enqueueURL(address);
+            }
+            if (Crawl.current().isInScope(address) && (followLinks || isKnownToCrawl(address)))
             {
                 localizeLink(element, address, attrKey); // changes the element in htmlDocument
             }
+            else if (hasHTTPsProtocol(address))
+            {
+                // Links outside of the downloaded site are made absolute, so that they keep working from the local copy.
+                element.attr(attrKey.substring("abs:".length()), address);
+            }
+        }
+    }
 
-            if (mayBeVisited(address))
+    /**
+     * Reads the name of the charset named by the charset parameter of a content-type header.
+     * @param contentType   Value of the content-type header, may be null.
+     * @return              Name of the charset, or null if the header names none or an unsupported one.
+     */
+    public static String getCharsetName(String contentType)
+    {
+        if (contentType == null)
+        {
+            return null;
+        }
+        for (String parameter : contentType.split(";"))
+        {
+            parameter = parameter.trim();
+            if (parameter.regionMatches(true, 0, "charset=", 0, "charset=".length()))
             {
-                boolean isHashHref = element.attr("href").startsWith("#");
-                // "hash href-s" are local href-s within the same page - they navigate to different HTML elements and
-                // as such, they are not valid links to download.
-                if (! isHashHref)
+                String name = parameter.substring("charset=".length()).replace("\"", "").trim();
+                try
                 {
-                    Downloader.enqueueURL(address);
-                    localizeLink(element, address, attrKey);
-
+                    return Charset.isSupported(name) ? name : null;
+                }
+                catch (IllegalArgumentException e)
+                {
+                    return null;
                 }
             }
         }
+        return null;
+    }
+
+    /**
+     * Reads the charset parameter of a content-type header.
+     * @param contentType   Value of the content-type header, may be null.
+     * @return              The charset named by the header, or UTF-8 if none or an unsupported one is named.
+     */
+    public static Charset getCharset(String contentType)
+    {
+        String name = getCharsetName(contentType);
+        return name == null ? StandardCharsets.UTF_8 : Charset.forName(name);
     }
 
     /**
@@ -226,53 +698,24 @@ public class DownloaderUtilities
 
     /**
      * Makes the links point relative to our local folder structure, making web pages browsable locally.
+     * The link is derived from the local paths of the document containing the element and of the address, so it
+     * works for every address in the scope of the crawl, not only for those below the seed.
+     * HTML documents with an ambiguous suffix get their local name registered first, see registerLocalName.
      * @param element   JSoup HTML element which has to be modified
-     * @param address   The address where the HTML file is located, which element's we are modifying
-     * @param attrKey   HTML element attribute key
+     * @param address   Absolute address the link points to
+     * @param attrKey   HTML element attribute key, prefixed with "abs:"
      */
-    private static void localizeLink(Element element, String address, String attrKey) {
-        attrKey = attrKey.substring("abs:".length());
-
-        String currentHref = element.attr(attrKey);
-
-        if (currentHref.startsWith("/")) // means that the href is relative to the root of the URL
-        {
-            element.attr(attrKey, currentHref.substring(1)); // exclude the slash for localization purposes
-            currentHref = element.attr(attrKey);
-        }
-
-        if (currentHref.startsWith(baseURL)) // means that our href is absolute, we must localize it.
-        {
-            String newHref = currentHref.substring(baseURL.length());
-            element.attr(attrKey, newHref);
-        }
-
-        if (!hasAmbiguousSuffix(currentHref))
+    private static void localizeLink(Element element, String address, String attrKey)
+    {
+        if (hasAmbiguousSuffix(address) && isHTML(address))
         {
-            return;
+            registerLocalName(address);
         }
-
-        if (isHTML(address))
+        Document document = element.ownerDocument();
+        String link = document == null ? null : getLocalLink(document.location(), address);
+        if (link != null)
         {
-            if (isDirectory(address))
-            {
-                if (!address.endsWith("/"))
-                {
-                    element.attr("href", currentHref + "/" + INDEX_HTML);
-                    renameMap.put(address, address + "/" + INDEX_HTML);
-                }
-                else
-                {
-                    element.attr("href", currentHref + INDEX_HTML);
-                    renameMap.put(address, address + INDEX_HTML);
-                }
-            }
-            else if (getURLWithoutSchema(currentHref) == null)
-            {
-                // Already assumed that the address has an ambiguous suffix, so we are safe to append .html to it
-                element.attr("href", currentHref + ".html");
-                renameMap.put(address, address + ".html");
-            }
+            element.attr(attrKey.substring("abs:".length()), link);
         }
     }
 
@@ -290,26 +733,28 @@ public class DownloaderUtilities
         {
             return true;
         }
-        URL url;
-        try
-        {
-            url = new URL(address + "/");
-        }
-        catch (MalformedURLException e)
+        URLMetadataCache.Metadata entry = URLMetadataCache.get(address);
+        boolean known = entry != null && entry.isDirectoryKnown();
+        URLMetadataCache.countLookup(known);
+        if (known)
         {
-            return false;
+            return entry.isDirectory();
         }
 
+        boolean directory;
         try
         {
-            url.getContent();
+            // Only the status is needed; the body of the response is not read.
+            HttpURLConnection connection = openConnection(address + "/");
+            directory = connection.getResponseCode() < 400;
+            connection.disconnect();
         }
         catch (IOException e)
         {
-            return false;
+            directory = false;
         }
-
-        return true;
+        URLMetadataCache.putDirectory(address, directory);
+        return directory;
     }
 
     /**
@@ -320,9 +765,10 @@ public class DownloaderUtilities
      */
     public static String getFileName(String address)
     {
-        if (renameMap.containsKey(address))
+        String renamed = Crawl.current().renameMap.get(address);
+        if (renamed != null)
         {
-            address = renameMap.get(address);
+            address = renamed;
         }
         int lastSlashIndex = address.lastIndexOf('/');
         if (lastSlashIndex == 6 || lastSlashIndex == 7 ) // means that the slash we discovered is in the http(s) part of the url
@@ -345,9 +791,10 @@ public class DownloaderUtilities
      */
     public static String getPath(String address)
     {
-        if (renameMap.containsKey(address))
+        String renamed = Crawl.current().renameMap.get(address);
+        if (renamed != null)
         {
-            address = renameMap.get(address);
+            address = renamed;
         }
 
         int lastSlashIndex = address.lastIndexOf('/');
@@ -403,13 +850,4 @@ public class DownloaderUtilities
             return false;
         }
     }
-
-    /**
-     * Makes the baseURL field accessible to set to the class
-     * @param baseURL The URL which the user passed and has been validated.
-     */
-    public static void setBaseURL(String baseURL)
-    {
-        DownloaderUtilities.baseURL = baseURL;
-    }
 }
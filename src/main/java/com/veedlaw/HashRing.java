@@ -0,0 +1,81 @@
+package com.veedlaw;
+
+import java.util.Arrays;
+
+/**
+ * A consistent hash ring which assigns URL addresses to the nodes of a cluster.
+ * Each node is placed on the ring at many pseudo-random points, so that the address space is split evenly
+ * and adding a node only moves the addresses which the new node takes over.
+ */
+public class HashRing
+{
+    private static final int VIRTUAL_NODES = 128; // Number of points on the ring per node
+
+    private final long[] points; // Sorted positions of the points on the ring
+    private final int[] owners;  // owners[i] is the node to which points[i] belongs
+
+    /**
+     * Builds a ring for a cluster of numNodes nodes, numbered from 0.
+     * @param numNodes  Number of nodes in the cluster.
+     */
+    public HashRing(int numNodes)
+    {
+        if (numNodes < 1)
+        {
+            throw new IllegalArgumentException("A cluster needs at least one node");
+        }
+        long[][] pairs = new long[numNodes * VIRTUAL_NODES][];
+        for (int node = 0; node < numNodes; node++)
+        {
+            for (int v = 0; v < VIRTUAL_NODES; v++)
+            {
+                pairs[node * VIRTUAL_NODES + v] = new long[] {hash("node-" + node + "#" + v), node};
+            }
+        }
+        Arrays.sort(pairs, (a, b) -> Long.compare(a[0], b[0]));
+
+        points = new long[pairs.length];
+        owners = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i++)
+        {
+            points[i] = pairs[i][0];
+            owners[i] = (int) pairs[i][1];
+        }
+    }
+
+    /**
+     * Finds the node which owns a key: the owner of the first point at or after the key's position on the ring.
+     * @param key   Key to look up, such as a canonical URL address.
+     * @return      Number of the owning node.
+     */
+    public int owner(String key)
+    {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0)
+        {
+            index = -index - 1; // Insertion point
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a string followed by a finalizing mix, so that similar strings land far apart.
+     * @param key   String to hash.
+     * @return      Position of the string on the ring.
+     */
+    static long hash(String key)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++)
+        {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
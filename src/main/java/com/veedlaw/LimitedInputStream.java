@@ -0,0 +1,89 @@
+package com.veedlaw;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream which counts the bytes read through it and aborts the transfer once a byte limit or a deadline
+ * is crossed, by throwing a BudgetExceededException.
+ */
+public class LimitedInputStream extends FilterInputStream
+{
+    private final long limit;
+    private final boolean limitIsCrawlWide;
+    private final long deadlineMillis;
+    private long count = 0;
+
+    /**
+     * @param in                The stream to read from.
+     * @param limit             Maximal number of bytes which may be read.
+     * @param limitIsCrawlWide  True if the byte limit comes from the remaining bytes of the whole crawl.
+     * @param deadlineMillis    System.currentTimeMillis() after which reading fails, or Long.MAX_VALUE.
+     */
+    public LimitedInputStream(InputStream in, long limit, boolean limitIsCrawlWide, long deadlineMillis)
+    {
+        super(in);
+        this.limit = limit;
+        this.limitIsCrawlWide = limitIsCrawlWide;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int b = super.read();
+        if (b != -1)
+        {
+            account(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        int n = super.read(b, off, len);
+        if (n > 0)
+        {
+            account(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long skipped = super.skip(n);
+        account(skipped);
+        return skipped;
+    }
+
+    /**
+     * @return Number of bytes read so far.
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Counts read bytes and checks the limits; is called once per read chunk, not per byte.
+     * @param n Number of bytes just read.
+     * @throws BudgetExceededException If a limit has been crossed.
+     */
+    private void account(long n) throws BudgetExceededException
+    {
+        count += n;
+        if (count > limit)
+        {
+            throw new BudgetExceededException(limitIsCrawlWide
+                    ? "Byte budget of the crawl exhausted"
+                    : "File exceeds the size limit of " + limit + " bytes", limitIsCrawlWide);
+        }
+        if (deadlineMillis != Long.MAX_VALUE && System.currentTimeMillis() > deadlineMillis)
+        {
+            throw new BudgetExceededException("Time budget of the crawl exhausted", true);
+        }
+    }
+}
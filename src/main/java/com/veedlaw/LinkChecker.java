@@ -0,0 +1,384 @@
+package com.veedlaw;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the links of a website without saving anything but a report.
+ * Crawls the site like Downloader does, with many requests in parallel. HTML pages of the site are only parsed to
+ * find further links, other targets and pages outside of the site are only checked with a HEAD request.
+ * Redirects are followed explicitly, so that the whole redirect chain of every address is reported together with
+ * the pages which refer to it.
+ * The JDK keeps only 5 idle connections per host by default, too few to reuse connections across many parallel
+ * requests. It reads the limit once, when the first HTTP connection is made, so it can only be raised at startup,
+ * e.g. -Dhttp.maxConnections=32 for the default concurrency.
+ */
+public class LinkChecker
+{
+    public static final String REPORT_FILE_NAME = "link-report.tsv";
+    public static final int DEFAULT_CONCURRENCY = 32;
+
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    // Suffixes of addresses which are expected to serve HTML and are therefore fetched with GET right away
+    private static final Set<String> PAGE_SUFFIXES = Set.of("", "html", "htm", "xhtml", "php", "asp", "aspx", "jsp", "cgi");
+
+    /**
+     * The outcome of checking one address.
+     */
+    public static class LinkStatus
+    {
+        private volatile int status = -1;       // HTTP status of the final response, or -1 if there was none
+        private volatile String error;          // Description of a failure, or null
+        private volatile String finalAddress;   // Address the redirects ended at
+        private final List<String> redirectChain = Collections.synchronizedList(new ArrayList<>());
+
+        /**
+         * @return HTTP status of the final response, or -1 if the address could not be reached.
+         */
+        public int getStatus()
+        {
+            return status;
+        }
+
+        /**
+         * @return True if the address could not be reached or ended in an error status.
+         */
+        public boolean isBroken()
+        {
+            return status < 200 || status >= 400;
+        }
+
+        /**
+         * @return True if reaching the address involved at least one redirect.
+         */
+        public boolean isRedirected()
+        {
+            return !redirectChain.isEmpty();
+        }
+    }
+
+    private final String baseURL;
+    private final int concurrency;
+
+    private final Map<String, LinkStatus> results = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> referrers = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger checked = new AtomicInteger();
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private ExecutorService executor;
+
+    /**
+     * @param url           The address of the site to check; links under it are followed.
+     * @param concurrency   Number of requests made in parallel.
+     */
+    public LinkChecker(String url, int concurrency)
+    {
+        if (! DownloaderUtilities.hasHTTPsProtocol(url))
+        {
+            url = "http://" + url;
+        }
+        this.baseURL = url;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Checks every address reachable from the site and writes the report to dir.
+     * @param dir   Directory in which the report is saved.
+     * @return      Path of the written report.
+     * @throws IOException If the report can not be written.
+     */
+    public Path run(String dir) throws IOException
+    {
+        executor = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "LinkChecker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try
+        {
+            submitIfNew(baseURL);
+            finished.await();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        Path reportPath = Paths.get(dir, REPORT_FILE_NAME);
+        writeReport(reportPath);
+        return reportPath;
+    }
+
+    /**
+     * @return Number of addresses checked so far.
+     */
+    public int getNumChecked()
+    {
+        return checked.get();
+    }
+
+    /**
+     * @return Number of addresses waiting to be checked or being checked.
+     */
+    public int getNumPending()
+    {
+        return pending.get();
+    }
+
+    /**
+     * @return Number of checked addresses which are broken.
+     */
+    public int getNumBroken()
+    {
+        return (int) results.values().stream().filter(LinkStatus::isBroken).count();
+    }
+
+    /**
+     * @return A one line summary of the results.
+     */
+    public String summary()
+    {
+        long redirected = results.values().stream().filter(LinkStatus::isRedirected).count();
+        return String.format("%d addresses checked: %d broken, %d redirected", results.size(), getNumBroken(), redirected);
+    }
+
+    /**
+     * Schedules an address to be checked unless it has been scheduled already.
+     * @param address   Address to check.
+     */
+    private void submitIfNew(String address)
+    {
+        if (results.putIfAbsent(address, new LinkStatus()) != null)
+        {
+            return;
+        }
+        pending.incrementAndGet();
+        executor.execute(() -> {
+            try
+            {
+                check(address, results.get(address));
+            }
+            finally
+            {
+                checked.incrementAndGet();
+                if (pending.decrementAndGet() == 0)
+                {
+                    finished.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks one address, following redirects, and schedules the links of HTML pages of the site.
+     * @param address   Address to check.
+     * @param result    Where the outcome is stored.
+     */
+    private void check(String address, LinkStatus result)
+    {
+        String current = address;
+        boolean inScope = DownloaderUtilities.isOnSameDomain(baseURL, address);
+        boolean useGet = inScope && looksLikePage(address);
+        try
+        {
+            for (int hop = 0; hop <= DownloaderUtilities.MAX_REDIRECTS; hop++)
+            {
+                HttpURLConnection connection = open(current, useGet ? "GET" : "HEAD");
+                int status = connection.getResponseCode();
+                if (!useGet && (status == HttpURLConnection.HTTP_BAD_METHOD || status == HttpURLConnection.HTTP_NOT_IMPLEMENTED))
+                {
+                    // Some servers do not support HEAD
+                    connection.disconnect();
+                    useGet = true;
+                    hop--;
+                    continue;
+                }
+
+                String location = connection.getHeaderField("Location");
+                if (status >= 300 && status < 400 && location != null)
+                {
+                    result.redirectChain.add(status + " " + current);
+                    DownloaderUtilities.discardBody(connection);
+                    current = new URL(new URL(current), location).toString();
+                    inScope = DownloaderUtilities.isOnSameDomain(baseURL, current);
+                    continue;
+                }
+
+                result.status = status;
+                result.finalAddress = current;
+                boolean isHTML = DownloaderUtilities.isHTMLContentType(connection.getContentType());
+                if (inScope && isHTML && status < 400)
+                {
+                    if (!useGet)
+                    {
+                        // The HEAD request showed a page of the site after all, fetch it to find its links.
+                        connection.disconnect();
+                        useGet = true;
+                        hop--;
+                        continue;
+                    }
+                    expand(connection, current);
+                }
+                else
+                {
+                    DownloaderUtilities.discardBody(connection);
+                }
+                return;
+            }
+            result.error = "Too many redirects";
+        }
+        catch (MalformedURLException e)
+        {
+            result.error = "Malformed address: " + e.getMessage();
+        }
+        catch (IOException e)
+        {
+            result.error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+    }
+
+    /**
+     * Parses an HTML page and schedules its links.
+     * @param connection    Connection to the page.
+     * @param pageAddress   Final address of the page.
+     * @throws IOException If reading the page fails.
+     */
+    private void expand(HttpURLConnection connection, String pageAddress) throws IOException
+    {
+        Document document;
+        try (InputStream in = connection.getInputStream())
+        {
+            document = Jsoup.parse(in, DownloaderUtilities.getCharsetName(connection.getContentType()), pageAddress);
+        }
+        for (String link : DownloaderUtilities.collectLinks(document))
+        {
+            referrers.computeIfAbsent(link, key -> ConcurrentHashMap.newKeySet()).add(pageAddress);
+            submitIfNew(link);
+        }
+    }
+
+    /**
+     * Opens a connection which does not follow redirects.
+     * @param address   Address to connect to.
+     * @param method    HTTP method.
+     * @return          The connection, the request has not been sent yet.
+     * @throws IOException If the connection can not be opened.
+     */
+    private static HttpURLConnection open(String address, String method) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) new URL(address).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        connection.setConnectTimeout(TIMEOUT_MILLIS);
+        connection.setReadTimeout(TIMEOUT_MILLIS);
+        connection.setRequestMethod(method);
+        return connection;
+    }
+
+    /**
+     * Guesses from the suffix of an address whether it serves an HTML page.
+     * @param address   Address to test.
+     * @return          True if the address is likely an HTML page.
+     */
+    private static boolean looksLikePage(String address)
+    {
+        String path;
+        try
+        {
+            path = new URL(address).getPath();
+        }
+        catch (MalformedURLException e)
+        {
+            return true;
+        }
+        String lastSegment = path.substring(path.lastIndexOf('/') + 1);
+        int dotIndex = lastSegment.lastIndexOf('.');
+        String suffix = dotIndex == -1 ? "" : lastSegment.substring(dotIndex + 1).toLowerCase(Locale.ROOT);
+        return PAGE_SUFFIXES.contains(suffix);
+    }
+
+    /**
+     * Writes the report as tab-separated values: status, address, redirect chain, error and referring pages.
+     * Broken addresses come first.
+     * @param reportPath    Path of the report file.
+     * @throws IOException If the report can not be written.
+     */
+    private void writeReport(Path reportPath) throws IOException
+    {
+        List<Map.Entry<String, LinkStatus>> entries = new ArrayList<>(results.entrySet());
+        entries.sort((a, b) -> {
+            int byBroken = Boolean.compare(b.getValue().isBroken(), a.getValue().isBroken());
+            return byBroken != 0 ? byBroken : a.getKey().compareTo(b.getKey());
+        });
+
+        Files.createDirectories(reportPath.toAbsolutePath().getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8))
+        {
+            writer.write("status\taddress\tredirects\terror\treferrers\n");
+            for (Map.Entry<String, LinkStatus> entry : entries)
+            {
+                LinkStatus status = entry.getValue();
+                Set<String> referringPages = new TreeSet<>(referrers.getOrDefault(entry.getKey(), Collections.emptySet()));
+                writer.write(status.status + "\t" + entry.getKey()
+                        + "\t" + (status.isRedirected() ? String.join(" -> ", status.redirectChain) + " -> "
+                                + (status.finalAddress == null ? "?" : status.finalAddress) : "")
+                        + "\t" + (status.error == null ? "" : status.error.replace('\t', ' ').replace('\n', ' '))
+                        + "\t" + String.join(" ", referringPages) + "\n");
+            }
+        }
+    }
+
+    /**
+     * Runs a link check from the command line.
+     * Usage: LinkChecker url dir [concurrency]
+     * Pass -Dhttp.maxConnections with the concurrency to the JVM, so that the connections can be reused.
+     * @param args command line args.
+     */
+    public static void main(String[] args)
+    {
+        if (args.length < 2 || args.length > 3)
+        {
+            System.err.println("Usage: LinkChecker <url> <dir> [concurrency]");
+            System.exit(2);
+        }
+        int concurrency = args.length == 3 ? Integer.parseInt(args[2]) : DEFAULT_CONCURRENCY;
+        LinkChecker checker = new LinkChecker(args[0], concurrency);
+        try
+        {
+            Path report = checker.run(args[1]);
+            System.out.println(checker.summary() + "; report written to " + report);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to write the report: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,960 @@
+package com.veedlaw;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Serves a finished download over HTTP, so that a mirror can be browsed without the quirks of file:// URLs and
+ * without deploying a separate web server.
+ * Requests for /host/path are answered from the download root the same way the files were named by the crawl:
+ * directories resolve to their index.html and HTML documents which were saved with an added .html suffix are found
+ * under their original name. Content-types are taken from the ContentTypeIndex written during the crawl. Addresses
+ * which were not mirrored are looked up in WARC files found in the download root.
+ * File contents are sent with FileChannel.transferTo, so they never pass through the JVM heap. Connections are
+ * non-blocking and multiplexed over one selector thread per core, so hundreds of slow or idle keep-alive readers
+ * do not need a thread each.
+ */
+public class MirrorServer
+{
+    public static final int DEFAULT_PORT = 8080;
+
+    private static final int MAX_REQUEST_HEADER_BYTES = 16 * 1024;
+    private static final long IDLE_TIMEOUT_MILLIS = 30_000;
+    private static final long SELECT_TIMEOUT_MILLIS = 1000;
+    private static final int ACCEPT_BACKLOG = 1024;
+    // Pause after a failed accept, doubled while failures go on, so that running out of file descriptors does not spin
+    private static final long ACCEPT_RETRY_MIN_MILLIS = 10;
+    private static final long ACCEPT_RETRY_MAX_MILLIS = 1000;
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+    // Types the JDK does not guess from file names; used when the crawl recorded no content-type.
+    private static final Map<String, String> EXTENSION_TYPES = Map.ofEntries(
+            Map.entry("html", "text/html"),
+            Map.entry("htm", "text/html"),
+            Map.entry("css", "text/css"),
+            Map.entry("js", "text/javascript"),
+            Map.entry("mjs", "text/javascript"),
+            Map.entry("json", "application/json"),
+            Map.entry("svg", "image/svg+xml"),
+            Map.entry("webp", "image/webp"),
+            Map.entry("ico", "image/x-icon"),
+            Map.entry("woff", "font/woff"),
+            Map.entry("woff2", "font/woff2"),
+            Map.entry("ttf", "font/ttf"),
+            Map.entry("mp4", "video/mp4"),
+            Map.entry("webm", "video/webm"),
+            Map.entry("mp3", "audio/mpeg"),
+            Map.entry("pdf", "application/pdf"),
+            Map.entry("txt", "text/plain"),
+            Map.entry("jsonl", "application/x-ndjson")
+    );
+
+    private final Path root;
+    private final InetSocketAddress bindAddress;
+    private final Map<String, String> contentTypes;
+    private final WarcIndex warcIndex;
+
+    private ServerSocketChannel serverChannel;
+    private EventLoop[] loops;
+    private Thread acceptor;
+    private volatile boolean running = false;
+
+    /**
+     * Reads the content-type index and the WARC files of a download root. The server is started by start.
+     * @param root          Download root, the directory which was chosen for a crawl.
+     * @param bindAddress   Address and port to listen on.
+     * @throws IOException If the root is not a readable directory.
+     */
+    public MirrorServer(Path root, InetSocketAddress bindAddress) throws IOException
+    {
+        if (!Files.isDirectory(root))
+        {
+            throw new IOException(root + " is not a directory");
+        }
+        this.root = root.toAbsolutePath().normalize();
+        this.bindAddress = bindAddress;
+        this.contentTypes = ContentTypeIndex.load(this.root);
+        this.warcIndex = WarcIndex.load(this.root);
+    }
+
+    /**
+     * Binds the listening socket and starts the accepting and selector threads.
+     * @throws IOException If the address can not be bound.
+     */
+    public synchronized void start() throws IOException
+    {
+        if (running)
+        {
+            return;
+        }
+        serverChannel = ServerSocketChannel.open();
+        try
+        {
+            serverChannel.bind(bindAddress, ACCEPT_BACKLOG);
+        }
+        catch (IOException e)
+        {
+            closeQuietly(serverChannel);
+            throw e;
+        }
+
+        running = true;
+        loops = new EventLoop[Math.max(2, Runtime.getRuntime().availableProcessors())];
+        for (int i = 0; i < loops.length; i++)
+        {
+            loops[i] = new EventLoop();
+            Thread thread = new Thread(loops[i], "MirrorServer-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        acceptor = new Thread(this::acceptLoop, "MirrorServer-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops accepting connections and closes all open ones.
+     */
+    public synchronized void stop()
+    {
+        if (!running)
+        {
+            return;
+        }
+        running = false;
+        try
+        {
+            serverChannel.close();
+        }
+        catch (IOException ignored)
+        {
+            // Closing anyway.
+        }
+        acceptor.interrupt(); // Ends a pause after a failed accept
+        for (EventLoop loop : loops)
+        {
+            loop.selector.wakeup();
+        }
+    }
+
+    /**
+     * @return The port the server listens on, useful when it was started on port 0.
+     */
+    public int getPort()
+    {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return Number of responses that can be served from WARC files.
+     */
+    public int getNumArchivedResponses()
+    {
+        return warcIndex.size();
+    }
+
+    /**
+     * Body of the accepting thread. Hands accepted connections to the selector threads in turn.
+     * Failures, such as running out of file descriptors, are retried after a pause which grows while they go on;
+     * only the first failure in a row is reported.
+     */
+    private void acceptLoop()
+    {
+        int next = 0;
+        long retryMillis = 0; // 0 while accepting succeeds
+        while (running)
+        {
+            SocketChannel channel = null;
+            try
+            {
+                channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                loops[next].add(channel);
+                next = (next + 1) % loops.length;
+                retryMillis = 0;
+            }
+            catch (IOException e)
+            {
+                closeQuietly(channel);
+                if (!running)
+                {
+                    break;
+                }
+                if (retryMillis == 0)
+                {
+                    System.err.println("Accepting a connection failed: " + e.getMessage());
+                }
+                retryMillis = Math.min(ACCEPT_RETRY_MAX_MILLIS, Math.max(ACCEPT_RETRY_MIN_MILLIS, retryMillis * 2));
+                try
+                {
+                    Thread.sleep(retryMillis);
+                }
+                catch (InterruptedException interrupted)
+                {
+                    break; // Only stop interrupts the acceptor
+                }
+            }
+        }
+    }
+
+    /**
+     * A selector thread serving the connections assigned to it.
+     */
+    private final class EventLoop implements Runnable
+    {
+        private final Selector selector;
+        private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+
+        private EventLoop() throws IOException
+        {
+            selector = Selector.open();
+        }
+
+        /**
+         * Assigns a connection to this loop.
+         * @param channel   An accepted non-blocking connection.
+         */
+        private void add(SocketChannel channel)
+        {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run()
+        {
+            long lastSweep = System.currentTimeMillis();
+            while (running)
+            {
+                try
+                {
+                    selector.select(SELECT_TIMEOUT_MILLIS);
+                }
+                catch (IOException e)
+                {
+                    break;
+                }
+
+                SocketChannel channel;
+                while ((channel = newChannels.poll()) != null)
+                {
+                    try
+                    {
+                        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                        key.attach(new Exchange(channel, key));
+                    }
+                    catch (IOException e)
+                    {
+                        closeQuietly(channel);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Exchange exchange = (Exchange) key.attachment();
+                    try
+                    {
+                        if (key.isReadable())
+                        {
+                            exchange.read();
+                        }
+                        else if (key.isWritable())
+                        {
+                            exchange.handle();
+                        }
+                    }
+                    catch (IOException | RuntimeException e)
+                    {
+                        exchange.close();
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= SELECT_TIMEOUT_MILLIS)
+                {
+                    lastSweep = now;
+                    for (SelectionKey key : selector.keys())
+                    {
+                        Exchange exchange = (Exchange) key.attachment();
+                        if (exchange != null && now - exchange.lastActivity > IDLE_TIMEOUT_MILLIS)
+                        {
+                            exchange.close();
+                        }
+                    }
+                }
+            }
+
+            for (SelectionKey key : selector.keys())
+            {
+                Exchange exchange = (Exchange) key.attachment();
+                if (exchange != null)
+                {
+                    exchange.close();
+                }
+            }
+            SocketChannel pending;
+            while ((pending = newChannels.poll()) != null)
+            {
+                closeQuietly(pending);
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    /**
+     * State of one client connection: the request bytes read so far and the response being sent.
+     * Requests are handled one at a time, pipelined ones wait in the request buffer.
+     */
+    private final class Exchange
+    {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_HEADER_BYTES); // In write mode
+
+        private ByteBuffer head;        // Status line, headers and any generated body of the current response
+        private FileChannel file;       // File whose range [position, end) follows head, or null
+        private long position;
+        private long end;
+        private boolean keepAlive;
+        private boolean closed = false;
+        private long lastActivity = System.currentTimeMillis();
+
+        private Exchange(SocketChannel channel, SelectionKey key)
+        {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        /**
+         * Reads what the client sent and handles the complete requests.
+         * @throws IOException If the connection fails.
+         */
+        private void read() throws IOException
+        {
+            if (channel.read(request) == -1)
+            {
+                close();
+                return;
+            }
+            lastActivity = System.currentTimeMillis();
+            handle();
+        }
+
+        /**
+         * Sends the current response and handles the following buffered requests until the socket would block or
+         * no complete request is left.
+         * @throws IOException If the connection fails.
+         */
+        private void handle() throws IOException
+        {
+            while (!closed)
+            {
+                if (head != null)
+                {
+                    if (!send())
+                    {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    finishResponse();
+                    continue;
+                }
+                if (!parseRequest())
+                {
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Writes as much of the current response as the socket accepts.
+         * @return True if the whole response has been sent.
+         * @throws IOException If the connection fails.
+         */
+        private boolean send() throws IOException
+        {
+            while (head.hasRemaining())
+            {
+                if (channel.write(head) == 0)
+                {
+                    return false;
+                }
+                lastActivity = System.currentTimeMillis();
+            }
+            while (file != null && position < end)
+            {
+                long sent = file.transferTo(position, end - position, channel);
+                if (sent == 0)
+                {
+                    return false;
+                }
+                position += sent;
+                lastActivity = System.currentTimeMillis();
+            }
+            return true;
+        }
+
+        /**
+         * Releases the current response and closes the connection unless it is kept alive.
+         */
+        private void finishResponse()
+        {
+            head = null;
+            closeQuietly(file);
+            file = null;
+            if (!keepAlive)
+            {
+                close();
+            }
+        }
+
+        /**
+         * Takes one complete request out of the request buffer and prepares its response.
+         * @return True if a response was prepared, false if no complete request has been received yet.
+         */
+        private boolean parseRequest()
+        {
+            int headerEnd = findHeaderEnd();
+            if (headerEnd == -1)
+            {
+                if (!request.hasRemaining())
+                {
+                    keepAlive = false;
+                    head = errorResponse(431, "Request Header Fields Too Large", false);
+                    return true;
+                }
+                return false;
+            }
+
+            String header = new String(request.array(), 0, headerEnd, StandardCharsets.ISO_8859_1);
+            request.flip();
+            request.position(headerEnd + 4);
+            request.compact();
+
+            String[] lines = header.split("\r\n");
+            String[] requestLine = lines[0].split(" ");
+            if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1."))
+            {
+                keepAlive = false;
+                head = errorResponse(400, "Bad Request", false);
+                return true;
+            }
+            String connectionHeader = null;
+            boolean hasBody = false;
+            for (int i = 1; i < lines.length; i++)
+            {
+                int colon = lines[i].indexOf(':');
+                if (colon <= 0)
+                {
+                    continue;
+                }
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = lines[i].substring(colon + 1).trim();
+                if (name.equals("connection"))
+                {
+                    connectionHeader = value.toLowerCase(Locale.ROOT);
+                }
+                else if ((name.equals("content-length") && !value.equals("0")) || name.equals("transfer-encoding"))
+                {
+                    hasBody = true;
+                }
+            }
+            keepAlive = requestLine[2].equals("HTTP/1.0")
+                    ? "keep-alive".equals(connectionHeader)
+                    : !"close".equals(connectionHeader);
+
+            String method = requestLine[0];
+            if (hasBody || !(method.equals("GET") || method.equals("HEAD")))
+            {
+                keepAlive = false; // The body, if any, is not read, so the connection can not be reused
+                head = errorResponse(405, "Method Not Allowed", false);
+                return true;
+            }
+            respond(requestLine[1], method.equals("HEAD"));
+            return true;
+        }
+
+        /**
+         * @return Index of the empty line that ends the request headers, or -1 if it has not been received yet.
+         */
+        private int findHeaderEnd()
+        {
+            byte[] bytes = request.array();
+            for (int i = 0; i + 3 < request.position(); i++)
+            {
+                if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n')
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Prepares the response to a GET or HEAD request.
+         * @param target        Request target as sent by the client.
+         * @param headOnly      True if only the headers are to be sent.
+         */
+        private void respond(String target, boolean headOnly)
+        {
+            int queryIndex = target.indexOf('?');
+            String rawPath = queryIndex == -1 ? target : target.substring(0, queryIndex);
+            String path = percentDecode(rawPath);
+            if (path == null || !path.startsWith("/"))
+            {
+                head = errorResponse(400, "Bad Request", headOnly);
+                return;
+            }
+
+            Path resolved;
+            try
+            {
+                resolved = root.resolve(path.substring(1)).normalize();
+            }
+            catch (InvalidPathException e)
+            {
+                head = errorResponse(404, "Not Found", headOnly);
+                return;
+            }
+            if (!resolved.startsWith(root))
+            {
+                head = errorResponse(404, "Not Found", headOnly);
+                return;
+            }
+
+            if (Files.isDirectory(resolved))
+            {
+                if (!path.endsWith("/"))
+                {
+                    // Relative links in the index only work below the directory.
+                    head = redirectResponse(rawPath + "/" + (queryIndex == -1 ? "" : target.substring(queryIndex)), headOnly);
+                    return;
+                }
+                Path index = resolved.resolve("index.html");
+                if (Files.isRegularFile(index))
+                {
+                    serveFile(index, headOnly);
+                }
+                else
+                {
+                    head = listingResponse(resolved, path, headOnly);
+                }
+                return;
+            }
+            if (Files.isRegularFile(resolved))
+            {
+                serveFile(resolved, headOnly);
+                return;
+            }
+            // getFileName adds .html to the names of HTML documents whose addresses have no suffix.
+            Path html = resolved.resolveSibling(resolved.getFileName() + ".html");
+            if (Files.isRegularFile(html))
+            {
+                serveFile(html, headOnly);
+                return;
+            }
+
+            WarcIndex.Record record = lookupArchived(path.substring(1) + (queryIndex == -1 ? "" : target.substring(queryIndex)));
+            if (record != null)
+            {
+                serveArchived(record, headOnly);
+                return;
+            }
+            head = errorResponse(404, "Not Found", headOnly);
+        }
+
+        /**
+         * Prepares a response sending a whole file.
+         * @param path      A regular file below the root.
+         * @param headOnly  True if only the headers are to be sent.
+         */
+        private void serveFile(Path path, boolean headOnly)
+        {
+            try
+            {
+                file = FileChannel.open(path, StandardOpenOption.READ);
+                position = 0;
+                end = headOnly ? 0 : file.size();
+                head = headers(200, "OK", getContentType(path), file.size(), null);
+            }
+            catch (IOException e)
+            {
+                closeQuietly(file);
+                file = null;
+                head = errorResponse(403, "Forbidden", headOnly);
+            }
+        }
+
+        /**
+         * Prepares a response sending an archived response straight out of its WARC file.
+         * @param record    The archived response.
+         * @param headOnly  True if only the headers are to be sent.
+         */
+        private void serveArchived(WarcIndex.Record record, boolean headOnly)
+        {
+            StringBuilder extra = new StringBuilder();
+            for (String name : new String[] {"content-encoding", "location", "last-modified"})
+            {
+                String value = record.getHeader(name);
+                if (value != null)
+                {
+                    extra.append(name).append(": ").append(value).append("\r\n");
+                }
+            }
+            String transferEncoding = record.getHeader("transfer-encoding");
+            boolean chunked = transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked");
+            if (chunked)
+            {
+                extra.append("Transfer-Encoding: chunked\r\n"); // The payload is stored as it was received
+            }
+            String contentType = record.getHeader("content-type");
+            try
+            {
+                file = FileChannel.open(record.getFile(), StandardOpenOption.READ);
+                position = record.getOffset();
+                end = headOnly ? position : position + record.getLength();
+                head = headers(record.getStatus(), record.getReason(), contentType == null ? DEFAULT_CONTENT_TYPE : contentType,
+                        chunked ? -1 : record.getLength(), extra.toString());
+            }
+            catch (IOException e)
+            {
+                closeQuietly(file);
+                file = null;
+                head = errorResponse(403, "Forbidden", headOnly);
+            }
+        }
+
+        /**
+         * Builds the status line and headers of a response.
+         * @param status        Status code.
+         * @param reason        Reason phrase.
+         * @param contentType   Content-type of the body.
+         * @param length        Length of the body, or -1 if it is delimited otherwise.
+         * @param extraHeaders  Further header lines, each terminated by CRLF, or null.
+         * @return              The header bytes, ready to be written.
+         */
+        private ByteBuffer headers(int status, String reason, String contentType, long length, String extraHeaders)
+        {
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+            sb.append("Server: JGet\r\n");
+            sb.append("Content-Type: ").append(contentType).append("\r\n");
+            if (length >= 0)
+            {
+                sb.append("Content-Length: ").append(length).append("\r\n");
+            }
+            if (extraHeaders != null)
+            {
+                sb.append(extraHeaders);
+            }
+            sb.append(keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n");
+            sb.append("\r\n");
+            return ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        /**
+         * Builds a response whose body is generated in memory.
+         * @param status        Status code.
+         * @param reason        Reason phrase.
+         * @param contentType   Content-type of the body.
+         * @param body          The body.
+         * @param extraHeaders  Further header lines, each terminated by CRLF, or null.
+         * @param headOnly      True if the body is to be left out.
+         * @return              The whole response.
+         */
+        private ByteBuffer generatedResponse(int status, String reason, String contentType, byte[] body,
+                                            String extraHeaders, boolean headOnly)
+        {
+            ByteBuffer headerBytes = headers(status, reason, contentType, body.length, extraHeaders);
+            if (headOnly)
+            {
+                return headerBytes;
+            }
+            ByteBuffer response = ByteBuffer.allocate(headerBytes.remaining() + body.length);
+            response.put(headerBytes).put(body).flip();
+            return response;
+        }
+
+        /**
+         * @param status    Status code.
+         * @param reason    Reason phrase, also used as the body.
+         * @param headOnly  True if the body is to be left out.
+         * @return          A plain-text error response.
+         */
+        private ByteBuffer errorResponse(int status, String reason, boolean headOnly)
+        {
+            return generatedResponse(status, reason, "text/plain; charset=utf-8",
+                    (status + " " + reason + "\n").getBytes(StandardCharsets.UTF_8), null, headOnly);
+        }
+
+        /**
+         * @param location  Target of the redirect, already encoded.
+         * @param headOnly  True if the body is to be left out.
+         * @return          A permanent redirect response.
+         */
+        private ByteBuffer redirectResponse(String location, boolean headOnly)
+        {
+            return generatedResponse(301, "Moved Permanently", "text/plain; charset=utf-8",
+                    ("Moved to " + location + "\n").getBytes(StandardCharsets.UTF_8), "Location: " + location + "\r\n",
+                    headOnly);
+        }
+
+        /**
+         * Lists a directory without an index.html, which is mostly useful for the download root itself.
+         * @param dir       The directory.
+         * @param path      Decoded request path of the directory.
+         * @param headOnly  True if the body is to be left out.
+         * @return          An HTML response.
+         */
+        private ByteBuffer listingResponse(Path dir, String path, boolean headOnly)
+        {
+            List<String> names = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir))
+            {
+                for (Path entry : entries)
+                {
+                    String name = entry.getFileName().toString();
+                    names.add(Files.isDirectory(entry) ? name + "/" : name);
+                }
+            }
+            catch (IOException e)
+            {
+                return errorResponse(403, "Forbidden", headOnly);
+            }
+            Collections.sort(names);
+
+            StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><meta charset=\"utf-8\"><title>");
+            html.append(escapeHTML(path)).append("</title></head><body><h1>").append(escapeHTML(path)).append("</h1><ul>");
+            for (String name : names)
+            {
+                html.append("<li><a href=\"./").append(escapeHTML(percentEncode(name))).append("\">")
+                        .append(escapeHTML(name)).append("</a></li>");
+            }
+            html.append("</ul></body></html>\n");
+            return generatedResponse(200, "OK", "text/html; charset=utf-8",
+                    html.toString().getBytes(StandardCharsets.UTF_8), null, headOnly);
+        }
+
+        /**
+         * Closes the connection and releases the current response.
+         */
+        private void close()
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            key.cancel();
+            closeQuietly(file);
+            file = null;
+            head = null;
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * Finds an archived response for a request path of the form host/path.
+     * @param hostAndPath   Decoded request path without the leading slash, followed by the query if any.
+     * @return              The archived response, or null if there is none.
+     */
+    private WarcIndex.Record lookupArchived(String hostAndPath)
+    {
+        if (warcIndex.isEmpty())
+        {
+            return null;
+        }
+        if (hostAndPath.indexOf('/') == -1)
+        {
+            hostAndPath += "/";
+        }
+        WarcIndex.Record record = warcIndex.lookup("http://" + hostAndPath);
+        return record != null ? record : warcIndex.lookup("https://" + hostAndPath);
+    }
+
+    /**
+     * Finds the content-type of a file, preferring the one recorded during the crawl.
+     * @param path  A regular file below the root.
+     * @return      The content-type.
+     */
+    private String getContentType(Path path)
+    {
+        String relative = root.relativize(path).toString();
+        if (!File.separator.equals("/"))
+        {
+            relative = relative.replace(File.separator, "/");
+        }
+        String recorded = contentTypes.get(relative);
+        if (recorded != null)
+        {
+            return recorded;
+        }
+
+        String name = path.getFileName().toString();
+        int dotIndex = name.lastIndexOf('.');
+        if (dotIndex != -1)
+        {
+            String type = EXTENSION_TYPES.get(name.substring(dotIndex + 1).toLowerCase(Locale.ROOT));
+            if (type != null)
+            {
+                return type;
+            }
+        }
+        String guessed = URLConnection.guessContentTypeFromName(name);
+        return guessed != null ? guessed : DEFAULT_CONTENT_TYPE;
+    }
+
+    /**
+     * Decodes %XX escapes of a request path as UTF-8. Unlike URLDecoder, leaves '+' alone.
+     * @param path  A raw request path.
+     * @return      The decoded path, or null if it contains a malformed escape or a NUL character.
+     */
+    private static String percentDecode(String path)
+    {
+        if (path.indexOf('%') == -1)
+        {
+            return path;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(path.length());
+        for (int i = 0; i < path.length(); i++)
+        {
+            char c = path.charAt(i);
+            if (c == '%')
+            {
+                if (i + 2 >= path.length())
+                {
+                    return null;
+                }
+                int high = Character.digit(path.charAt(i + 1), 16);
+                int low = Character.digit(path.charAt(i + 2), 16);
+                if (high == -1 || low == -1 || (high == 0 && low == 0))
+                {
+                    return null;
+                }
+                bytes.write(high << 4 | low);
+                i += 2;
+            }
+            else
+            {
+                byte[] encoded = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+                bytes.write(encoded, 0, encoded.length);
+            }
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Escapes the characters of a file name which can not appear literally in a relative link.
+     * @param name  A file name.
+     * @return      The name usable as a link.
+     */
+    private static String percentEncode(String name)
+    {
+        StringBuilder sb = new StringBuilder(name.length());
+        for (byte b : name.getBytes(StandardCharsets.UTF_8))
+        {
+            int c = b & 0xff;
+            if (c <= 0x20 || c >= 0x7f || c == '%' || c == '?' || c == '#' || c == '"')
+            {
+                sb.append('%').append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+            }
+            else
+            {
+                sb.append((char) c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param s A string.
+     * @return  s with the characters that are special in HTML escaped.
+     */
+    private static String escapeHTML(String s)
+    {
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    /**
+     * Closes a resource, ignoring failures.
+     * @param closeable The resource, may be null.
+     */
+    private static void closeQuietly(AutoCloseable closeable)
+    {
+        if (closeable == null)
+        {
+            return;
+        }
+        try
+        {
+            closeable.close();
+        }
+        catch (Exception ignored)
+        {
+            // Nothing left to do with it.
+        }
+    }
+
+    /**
+     * Serves a download root from the command line until the process is killed.
+     * Usage: MirrorServer dir [port] [bindAddress]; the server listens on 127.0.0.1 unless told otherwise.
+     * @param args command line args.
+     */
+    public static void main(String[] args)
+    {
+        if (args.length < 1 || args.length > 3)
+        {
+            System.err.println("Usage: MirrorServer <dir> [port] [bindAddress]");
+            System.exit(2);
+        }
+        try
+        {
+            int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+            InetAddress host = InetAddress.getByName(args.length > 2 ? args[2] : "127.0.0.1");
+            MirrorServer server = new MirrorServer(Paths.get(args[0]), new InetSocketAddress(host, port));
+            server.start();
+            System.out.println("Serving " + args[0] + " at http://" + host.getHostAddress() + ":" + server.getPort() + "/"
+                    + (server.getNumArchivedResponses() > 0 ? " (" + server.getNumArchivedResponses() + " archived responses)" : ""));
+            server.acceptor.join();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Unable to serve " + args[0] + ": " + e.getMessage());
+            System.exit(1);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
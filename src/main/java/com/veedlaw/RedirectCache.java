@@ -0,0 +1,59 @@
+package com.veedlaw;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the redirects seen during a crawl.
+ * Used to replace links to redirecting addresses by their targets before they are queued or localized,
+ * so that many addresses redirecting to the same page lead to a single request and a single local copy.
+ * Every Crawl has its own cache, so redirects which have changed since an earlier crawl do not rewrite its links.
+ */
+public class RedirectCache
+{
+    // Maps addresses which answered with a redirect to the address they redirected to.
+    private final Map<String, String> targets = new HashMap<>();
+
+    /**
+     * Records a redirect.
+     * @param source    Address which answered with a redirect.
+     * @param target    Absolute address the redirect pointed to.
+     */
+    public void record(String source, String target)
+    {
+        if (!source.equals(target))
+        {
+            targets.put(source, target);
+        }
+    }
+
+    /**
+     * Follows the known redirects starting at an address.
+     * @param address   An URL address.
+     * @return          The address at the end of the known redirect chain, or address itself if it is not known to
+     *                  redirect. Chains which are too long or loop end at the last address before the limit.
+     */
+    public String resolve(String address)
+    {
+        String current = address;
+        for (int hop = 0; hop < DownloaderUtilities.MAX_REDIRECTS; hop++)
+        {
+            String target = targets.get(current);
+            if (target == null || target.equals(address))
+            {
+                return current;
+            }
+            current = target;
+        }
+        return current;
+    }
+
+    /**
+     * @param address   An URL address.
+     * @return          True if the address is known to redirect.
+     */
+    public boolean isRedirect(String address)
+    {
+        return targets.containsKey(address);
+    }
+}
@@ -0,0 +1,99 @@
+package com.veedlaw;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 64-bit SimHash fingerprints of text. Texts which share most of their content get fingerprints which differ in only
+ * a few bits, so near-duplicates can be found by the Hamming distance of their fingerprints.
+ * The features are overlapping three-word shingles, so word order matters and a changed date or counter only
+ * affects the few shingles containing it.
+ */
+public final class SimHash
+{
+    private static final int SHINGLE_SIZE = 3;
+
+    private SimHash()
+    {
+    }
+
+    /**
+     * Computes the fingerprint of a text. Case, punctuation and whitespace do not matter.
+     * @param text  Any text, such as the visible text of a page.
+     * @return      The fingerprint; 0 for a text without words.
+     */
+    public static long fingerprint(String text)
+    {
+        List<String> words = words(text);
+        if (words.isEmpty())
+        {
+            return 0;
+        }
+
+        int[] weights = new int[64];
+        StringBuilder shingle = new StringBuilder();
+        int numShingles = Math.max(1, words.size() - SHINGLE_SIZE + 1);
+        for (int i = 0; i < numShingles; i++)
+        {
+            shingle.setLength(0);
+            for (int j = i; j < Math.min(i + SHINGLE_SIZE, words.size()); j++)
+            {
+                shingle.append(words.get(j)).append(' ');
+            }
+            long hash = HashRing.hash(shingle.toString());
+            for (int bit = 0; bit < 64; bit++)
+            {
+                weights[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+            }
+        }
+
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++)
+        {
+            if (weights[bit] > 0)
+            {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @param a A fingerprint.
+     * @param b A fingerprint.
+     * @return  Number of bits in which the fingerprints differ.
+     */
+    public static int distance(long a, long b)
+    {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * Splits a text into lower-case words of letters and digits.
+     * @param text  Any text.
+     * @return      The words in order.
+     */
+    private static List<String> words(String text)
+    {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c))
+            {
+                word.append(Character.toLowerCase(c));
+            }
+            else if (word.length() > 0)
+            {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0)
+        {
+            words.add(word.toString());
+        }
+        return words;
+    }
+}
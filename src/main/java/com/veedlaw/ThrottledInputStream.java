@@ -0,0 +1,91 @@
+package com.veedlaw;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that obeys the limits of a BandwidthLimiter.
+ * Reads are capped at BandwidthLimiter.CHUNK_SIZE bytes and accounted after each chunk; single-byte reads are
+ * gathered until a whole chunk has been read.
+ */
+public class ThrottledInputStream extends FilterInputStream
+{
+    private final BandwidthLimiter limiter;
+    private final String host;
+    private long unaccounted = 0;
+
+    /**
+     * @param in        The underlying stream.
+     * @param limiter   Limiter accounting the transferred bytes.
+     * @param host      Host the stream comes from.
+     */
+    public ThrottledInputStream(InputStream in, BandwidthLimiter limiter, String host)
+    {
+        super(in);
+        this.limiter = limiter;
+        this.host = host;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        int b = in.read();
+        if (b != -1 && ++unaccounted >= BandwidthLimiter.CHUNK_SIZE)
+        {
+            account();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        int n = in.read(b, off, Math.min(len, BandwidthLimiter.CHUNK_SIZE));
+        if (n > 0)
+        {
+            unaccounted += n;
+            account();
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException
+    {
+        long skipped = in.skip(Math.min(n, BandwidthLimiter.CHUNK_SIZE));
+        if (skipped > 0)
+        {
+            unaccounted += skipped;
+            account();
+        }
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        try
+        {
+            if (unaccounted > 0)
+            {
+                account();
+            }
+        }
+        finally
+        {
+            super.close();
+        }
+    }
+
+    /**
+     * Accounts the bytes read since the last call, waiting if a limit is exceeded.
+     * @throws IOException If the thread is interrupted while waiting.
+     */
+    private void account() throws IOException
+    {
+        long bytes = unaccounted;
+        unaccounted = 0;
+        limiter.consume(host, bytes);
+    }
+}
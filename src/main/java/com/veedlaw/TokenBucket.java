@@ -0,0 +1,99 @@
+package com.veedlaw;
+
+/**
+ * A token bucket refilled at a fixed number of bytes per second.
+ * Transfers take their bytes after they happened and may drive the bucket into debt, which is paid off by waiting;
+ * this way a transfer never has to be split to fit the bucket. The rate may be changed at any time.
+ */
+public final class TokenBucket
+{
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private static final double BURST_SECONDS = 0.25; // The bucket holds this many seconds worth of tokens
+
+    private volatile long rate; // Bytes per second, may be read without the lock
+    private double tokens = 0;
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     * @param rate  Bytes per second, or UNLIMITED.
+     */
+    public TokenBucket(long rate)
+    {
+        this.rate = rate;
+    }
+
+    /**
+     * Changes the rate. Tokens gathered or owed so far are kept, so a lowered rate takes effect immediately and a
+     * raised one shortens the current wait.
+     * @param rate  Bytes per second, or UNLIMITED.
+     */
+    public synchronized void setRate(long rate)
+    {
+        if (this.rate != UNLIMITED)
+        {
+            refill();
+        }
+        else
+        {
+            tokens = 0;
+            lastRefillNanos = System.nanoTime();
+        }
+        this.rate = rate;
+    }
+
+    /**
+     * @return Bytes per second, or UNLIMITED.
+     */
+    public long getRate()
+    {
+        return rate;
+    }
+
+    /**
+     * Takes tokens for bytes which have been transferred.
+     * @param bytes Number of bytes.
+     */
+    public void take(long bytes)
+    {
+        if (rate == UNLIMITED)
+        {
+            return;
+        }
+        synchronized (this)
+        {
+            refill();
+            tokens -= bytes;
+        }
+    }
+
+    /**
+     * @return Nanoseconds until the debt of the bucket is paid off, 0 if there is none.
+     */
+    public long getWaitNanos()
+    {
+        if (rate == UNLIMITED)
+        {
+            return 0;
+        }
+        synchronized (this)
+        {
+            refill();
+            return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+        }
+    }
+
+    /**
+     * Adds the tokens gathered since the last refill, up to the capacity of the bucket. Must hold the lock.
+     */
+    private void refill()
+    {
+        long now = System.nanoTime();
+        if (rate != UNLIMITED)
+        {
+            double capacity = Math.max(BandwidthLimiter.CHUNK_SIZE, rate * BURST_SECONDS);
+            tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * (rate / 1e9));
+        }
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,285 @@
+package com.veedlaw;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Detects near-duplicate pages and the URL patterns that keep producing them, such as calendars, session ids and
+ * endless paginations, which make a crawl follow an unbounded number of near-identical pages.
+ * Every page gets a SimHash fingerprint of its text; a page is a near-duplicate if a fingerprint at most a few bits
+ * away has been seen before. Pages are grouped by the pattern of their address (numbers and query values removed)
+ * and a pattern whose pages are mostly near-duplicates is suspected to be a trap.
+ * The fingerprints are split into more bands than the allowed distance, so any two fingerprints within the distance
+ * agree on at least one band and only fingerprints sharing a band have to be compared.
+ */
+public class TrapDetector
+{
+    public static final int DEFAULT_MAX_DISTANCE = 3;
+    public static final int DEFAULT_MIN_PAGES = 8;
+    public static final double DEFAULT_DUPLICATE_RATIO = 0.5;
+
+    private static final String PROPERTY_PREFIX = "jget.trap.";
+    private static final int MAX_REPORTED_PATTERNS = 10;
+
+    /**
+     * Counts of the pages seen under one URL pattern.
+     */
+    private static final class PatternStats
+    {
+        private int pages = 0;
+        private int nearDuplicates = 0;
+        private boolean suspected = false;
+    }
+
+    private final int maxDistance;
+    private final int minPages;
+    private final double duplicateRatio;
+
+    private final int[] bandShifts;
+    private final long[] bandMasks;
+    // One map per band from the value of the band to the fingerprints having it.
+    private final List<Map<Long, List<Long>>> bands = new ArrayList<>();
+    private final Map<String, PatternStats> patterns = new HashMap<>();
+
+    private int numPages = 0;
+    private int numNearDuplicates = 0;
+
+    /**
+     * @param maxDistance       Maximal number of differing fingerprint bits of near-duplicate pages, below 64.
+     * @param minPages          Number of pages a pattern needs before it can be suspected.
+     * @param duplicateRatio    Fraction of near-duplicate pages which makes a pattern suspected.
+     */
+    public TrapDetector(int maxDistance, int minPages, double duplicateRatio)
+    {
+        this.maxDistance = Math.max(0, Math.min(maxDistance, 63));
+        this.minPages = minPages;
+        this.duplicateRatio = duplicateRatio;
+
+        int numBands = this.maxDistance + 1;
+        bandShifts = new int[numBands];
+        bandMasks = new long[numBands];
+        for (int band = 0; band < numBands; band++)
+        {
+            int from = band * 64 / numBands;
+            int to = (band + 1) * 64 / numBands;
+            bandShifts[band] = from;
+            bandMasks[band] = to - from == 64 ? -1L : (1L << (to - from)) - 1;
+            bands.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Reads the thresholds from the system properties jget.trap.maxDistance, jget.trap.minPages and
+     * jget.trap.duplicateRatio, using the defaults for the missing ones.
+     * @return A detector with the configured thresholds.
+     */
+    public static TrapDetector fromSystemProperties()
+    {
+        return new TrapDetector(
+                Integer.getInteger(PROPERTY_PREFIX + "maxDistance", DEFAULT_MAX_DISTANCE),
+                Integer.getInteger(PROPERTY_PREFIX + "minPages", DEFAULT_MIN_PAGES),
+                Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "duplicateRatio",
+                        String.valueOf(DEFAULT_DUPLICATE_RATIO))));
+    }
+
+    /**
+     * Fingerprints a page, remembers it and updates the statistics of its URL pattern.
+     * @param address   Address of the page.
+     * @param text      Visible text of the page.
+     * @return          True if the page is a near-duplicate of a page seen before.
+     */
+    public synchronized boolean addPage(String address, String text)
+    {
+        long fingerprint = SimHash.fingerprint(text);
+        boolean nearDuplicate = hasNearDuplicate(fingerprint);
+        if (!nearDuplicate)
+        {
+            // Near-duplicates are not indexed, a close fingerprint is there already.
+            for (int band = 0; band < bands.size(); band++)
+            {
+                bands.get(band).computeIfAbsent(bandValue(fingerprint, band), key -> new ArrayList<>(1)).add(fingerprint);
+            }
+        }
+
+        numPages++;
+        PatternStats stats = patterns.computeIfAbsent(getPattern(address), key -> new PatternStats());
+        stats.pages++;
+        if (nearDuplicate)
+        {
+            numNearDuplicates++;
+            stats.nearDuplicates++;
+        }
+        stats.suspected = stats.pages >= minPages && stats.nearDuplicates >= duplicateRatio * stats.pages;
+        return nearDuplicate;
+    }
+
+    /**
+     * @param address   An URL address.
+     * @return          True if the pattern of the address is suspected to be a crawler trap.
+     */
+    public synchronized boolean isSuspected(String address)
+    {
+        PatternStats stats = patterns.get(getPattern(address));
+        return stats != null && stats.suspected;
+    }
+
+    /**
+     * @return Number of near-duplicate pages seen so far.
+     */
+    public synchronized int getNumNearDuplicates()
+    {
+        return numNearDuplicates;
+    }
+
+    /**
+     * @return A human-readable report of the near-duplicates and suspected patterns.
+     */
+    public synchronized String report()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Near-duplicate pages: %d of %d", numNearDuplicates, numPages));
+        int reported = 0;
+        for (Map.Entry<String, PatternStats> entry : patterns.entrySet())
+        {
+            PatternStats stats = entry.getValue();
+            if (!stats.suspected)
+            {
+                continue;
+            }
+            if (reported++ == MAX_REPORTED_PATTERNS)
+            {
+                sb.append("\n  ...");
+                break;
+            }
+            sb.append(String.format("%n  suspected trap %s (%d of %d pages near-duplicate)", entry.getKey(),
+                    stats.nearDuplicates, stats.pages));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Derives the pattern of an address: the host and the path with every run of digits replaced by '#', long
+     * hexadecimal segments replaced by '*', path parameters such as ;jsessionid removed and the query reduced to its
+     * sorted parameter names.
+     * Example: "https://example.com/cal/2021/05?day=3&view=week" has the pattern "example.com/cal/#/#?day&view".
+     * @param address   An URL address.
+     * @return          The pattern of the address.
+     */
+    public static String getPattern(String address)
+    {
+        URL url;
+        try
+        {
+            url = new URL(address);
+        }
+        catch (MalformedURLException e)
+        {
+            return address;
+        }
+
+        StringBuilder pattern = new StringBuilder(url.getHost().toLowerCase(Locale.ROOT));
+        String[] segments = url.getPath().split("/", -1);
+        for (int i = 0; i < segments.length; i++)
+        {
+            String segment = segments[i];
+            if (i > 0)
+            {
+                pattern.append('/');
+            }
+            int semicolon = segment.indexOf(';');
+            if (semicolon != -1)
+            {
+                segment = segment.substring(0, semicolon);
+            }
+            if (segment.length() >= 16 && segment.chars().allMatch(c -> Character.digit(c, 16) != -1 || c == '-'))
+            {
+                pattern.append('*');
+            }
+            else
+            {
+                appendWithoutDigits(pattern, segment);
+            }
+        }
+
+        String query = url.getQuery();
+        if (query != null && !query.isEmpty())
+        {
+            String[] names = query.split("&");
+            for (int i = 0; i < names.length; i++)
+            {
+                int equals = names[i].indexOf('=');
+                names[i] = equals == -1 ? names[i] : names[i].substring(0, equals);
+            }
+            Arrays.sort(names);
+            pattern.append('?').append(String.join("&", names));
+        }
+        return pattern.toString();
+    }
+
+    /**
+     * Appends a string with every run of digits replaced by a single '#'.
+     * @param sb    Builder to append to.
+     * @param s     String to append.
+     */
+    private static void appendWithoutDigits(StringBuilder sb, String s)
+    {
+        boolean inDigits = false;
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9')
+            {
+                if (!inDigits)
+                {
+                    sb.append('#');
+                }
+                inDigits = true;
+            }
+            else
+            {
+                sb.append(c);
+                inDigits = false;
+            }
+        }
+    }
+
+    /**
+     * @param fingerprint   A fingerprint.
+     * @return              True if an indexed fingerprint is within maxDistance of it.
+     */
+    private boolean hasNearDuplicate(long fingerprint)
+    {
+        for (int band = 0; band < bands.size(); band++)
+        {
+            List<Long> candidates = bands.get(band).get(bandValue(fingerprint, band));
+            if (candidates == null)
+            {
+                continue;
+            }
+            for (long candidate : candidates)
+            {
+                if (SimHash.distance(fingerprint, candidate) <= maxDistance)
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param fingerprint   A fingerprint.
+     * @param band          Index of a band.
+     * @return              The bits of the fingerprint in the band.
+     */
+    private long bandValue(long fingerprint, int band)
+    {
+        return (fingerprint >>> bandShifts[band]) & bandMasks[band];
+    }
+}
@@ -0,0 +1,268 @@
+package com.veedlaw;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers what is known about addresses seen during a crawl: content-type, whether the address is a directory,
+ * size, status code and when it was learned. Failed probes are remembered too, so an address which is referenced
+ * from many pages costs at most one network round trip.
+ * The number of entries is bounded, the least recently used ones are evicted first.
+ */
+public final class URLMetadataCache
+{
+    public static final int DEFAULT_MAX_ENTRIES = 1 << 16;
+    // Failures are retried after a while, a transient error should not hide an address for the whole crawl.
+    private static final long NEGATIVE_TTL_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * Metadata of a single address. Entries are immutable, updates replace them.
+     */
+    public static final class Metadata
+    {
+        public static final int STATUS_UNKNOWN = 0; // Only the directory flag is known
+        public static final int STATUS_FAILED = -1; // No response could be obtained
+        public static final long SIZE_UNKNOWN = -1;
+
+        private static final byte DIRECTORY_UNKNOWN = 0;
+        private static final byte DIRECTORY_NO = 1;
+        private static final byte DIRECTORY_YES = 2;
+
+        private final String contentType;
+        private final int status;
+        private final long size;
+        private final byte directory;
+        private final long timestamp;
+
+        private Metadata(String contentType, int status, long size, byte directory)
+        {
+            this.contentType = contentType;
+            this.status = status;
+            this.size = size;
+            this.directory = directory;
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        /**
+         * @return Content-type of the response, or null if unknown.
+         */
+        public String getContentType()
+        {
+            return contentType;
+        }
+
+        /**
+         * @return HTTP status code of the response, or STATUS_FAILED.
+         */
+        public int getStatus()
+        {
+            return status;
+        }
+
+        /**
+         * @return Content-Length of the response, or SIZE_UNKNOWN.
+         */
+        public long getSize()
+        {
+            return size;
+        }
+
+        /**
+         * @return System.currentTimeMillis() at which the entry was created.
+         */
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        /**
+         * @return True if the address serves HTML.
+         */
+        public boolean isHTML()
+        {
+            return DownloaderUtilities.isHTMLContentType(contentType);
+        }
+
+        /**
+         * @return True if a response, or the failure to get one, is known.
+         */
+        public boolean isResponseKnown()
+        {
+            return status != STATUS_UNKNOWN;
+        }
+
+        /**
+         * @return True if no response could be obtained from the address.
+         */
+        public boolean isFailure()
+        {
+            return status == STATUS_FAILED;
+        }
+
+        /**
+         * @return True if it has been tested whether the address is a directory.
+         */
+        public boolean isDirectoryKnown()
+        {
+            return directory != DIRECTORY_UNKNOWN;
+        }
+
+        /**
+         * @return True if the address is known to be a directory.
+         */
+        public boolean isDirectory()
+        {
+            return directory == DIRECTORY_YES;
+        }
+    }
+
+    private static int maxEntries = Integer.getInteger("jget.urlcache.maxEntries", DEFAULT_MAX_ENTRIES);
+
+    // Access-ordered, so iteration starts at the least recently used entry; guarded by the class lock.
+    private static final LinkedHashMap<String, Metadata> entries = new LinkedHashMap<>(1024, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Metadata> eldest)
+        {
+            if (size() > maxEntries)
+            {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private static long hits = 0;
+    private static long misses = 0;
+    private static long evictions = 0;
+
+    private URLMetadataCache()
+    {
+    }
+
+    /**
+     * Looks an address up. The lookup is not counted, since only the caller knows whether the entry spared it a
+     * network request; see countLookup.
+     * @param address   An URL address.
+     * @return          The entry of the address, or null if nothing is known about it or its failure has expired.
+     */
+    public static synchronized Metadata get(String address)
+    {
+        Metadata entry = entries.get(address);
+        if (entry != null && entry.isFailure() && System.currentTimeMillis() - entry.timestamp > NEGATIVE_TTL_MILLIS)
+        {
+            entries.remove(address);
+            entry = null;
+        }
+        return entry;
+    }
+
+    /**
+     * Counts a lookup made instead of probing the network, for the hit rate.
+     * @param hit   True if the cache answered it, false if the address had to be probed after all.
+     */
+    public static synchronized void countLookup(boolean hit)
+    {
+        if (hit)
+        {
+            hits++;
+        }
+        else
+        {
+            misses++;
+        }
+    }
+
+    /**
+     * Remembers a response of an address. A known directory flag of the address is kept.
+     * @param address       An URL address.
+     * @param contentType   Content-type of the response, may be null.
+     * @param status        HTTP status code of the response.
+     * @param size          Content-Length of the response, or Metadata.SIZE_UNKNOWN.
+     */
+    public static synchronized void putResponse(String address, String contentType, int status, long size)
+    {
+        Metadata previous = entries.get(address);
+        byte directory = previous == null ? Metadata.DIRECTORY_UNKNOWN : previous.directory;
+        entries.put(address, new Metadata(contentType, status, size, directory));
+    }
+
+    /**
+     * Remembers that no response could be obtained from an address.
+     * @param address   An URL address.
+     */
+    public static synchronized void putFailure(String address)
+    {
+        entries.put(address, new Metadata(null, Metadata.STATUS_FAILED, Metadata.SIZE_UNKNOWN, Metadata.DIRECTORY_UNKNOWN));
+    }
+
+    /**
+     * Remembers whether an address is a directory. The rest of a known entry is kept.
+     * @param address   An URL address.
+     * @param directory True if the address is a directory.
+     */
+    public static synchronized void putDirectory(String address, boolean directory)
+    {
+        Metadata previous = entries.get(address);
+        byte flag = directory ? Metadata.DIRECTORY_YES : Metadata.DIRECTORY_NO;
+        if (previous == null)
+        {
+            entries.put(address, new Metadata(null, Metadata.STATUS_UNKNOWN, Metadata.SIZE_UNKNOWN, flag));
+        }
+        else
+        {
+            entries.put(address, new Metadata(previous.contentType, previous.status, previous.size, flag));
+        }
+    }
+
+    /**
+     * Changes the maximal number of entries; if the cache holds more, the least recently used ones are evicted.
+     * The "jget.urlcache.maxEntries" system property sets the initial value.
+     * @param maxEntries    Maximal number of entries, at least 1.
+     */
+    public static synchronized void setMaxEntries(int maxEntries)
+    {
+        URLMetadataCache.maxEntries = Math.max(1, maxEntries);
+        // removeEldestEntry evicts at most one entry per insertion, so a lowered limit is applied here.
+        Iterator<Metadata> eldest = entries.values().iterator();
+        while (entries.size() > URLMetadataCache.maxEntries)
+        {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Forgets all entries and resets the statistics.
+     */
+    public static synchronized void clear()
+    {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    /**
+     * @return Fraction of counted lookups that were answered by the cache, 0 if there were none.
+     */
+    public static synchronized double getHitRate()
+    {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return A human-readable report of the cache statistics.
+     */
+    public static synchronized String report()
+    {
+        return String.format("URL metadata cache: %d entries, %d hits, %d misses (%.1f %% hit rate), %d evictions",
+                entries.size(), hits, misses, getHitRate() * 100, evictions);
+    }
+}
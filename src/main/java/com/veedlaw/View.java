@@ -4,6 +4,12 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Contains all code pertaining to the graphical user interface.
@@ -16,6 +22,7 @@ public class View
     private JLabel webpageLabel;
     private JLabel numDownloadedLabel;
     private JLabel toBeDownloadedLabel;
+    private JCheckBox linkCheckBox;
 
     private JButton startButton;
     private Timer timer;
@@ -26,6 +33,11 @@ public class View
     private static final String BUTTON_DEFAULT_MESSAGE = "Download";
     private static final String BUTTON_RUNNING_MESSAGE = "Downloading ... ";
     private static final String WEBPAGELABEL_DEFAULT_MESSAGE = "";
+    private static final String LINKCHECK_RUNNING_MESSAGE = "Checking links ... ";
+    private static final String CRAWL_RUNNING_MESSAGE = "Another crawl is running. Wait for it to finish or cancel it.";
+
+    // Set while a download or a batch crawl runs; they share the process-wide crawl log, so only one may run at a time.
+    private static final AtomicBoolean crawlRunning = new AtomicBoolean(false);
 
     /**
      * Creates and adds all components of the GUI to panel.
@@ -87,6 +99,9 @@ public class View
         panel.add(toBeDownloadedLabel, makeLabelConstraint(4, GridBagConstraints.REMAINDER));
         // Labels created above.
 
+        linkCheckBox = new JCheckBox("Only check links, do not save any files");
+        panel.add(linkCheckBox, makeLabelConstraint(5, GridBagConstraints.REMAINDER));
+
         return panel;
     }
 
@@ -113,7 +128,19 @@ public class View
     private static JMenuBar createMenu(JPanel panel) {
         JMenuBar mb = new JMenuBar();
         JMenu menu = new JMenu("File");
-        JMenuItem item = new JMenuItem("Quit");
+        JMenuItem item = new JMenuItem("Serve a download...");
+        item.addActionListener((ActionEvent e) -> serveDownload(panel));
+        menu.add(item);
+        JMenuItem cancelBatchItem = new JMenuItem("Cancel batch crawl");
+        cancelBatchItem.setEnabled(false);
+        item = new JMenuItem("Batch crawl...");
+        item.addActionListener((ActionEvent e) -> startBatchCrawl(panel, cancelBatchItem));
+        menu.add(item);
+        menu.add(cancelBatchItem);
+        item = new JMenuItem("Bandwidth limits...");
+        item.addActionListener((ActionEvent e) -> showBandwidthDialog(panel));
+        menu.add(item);
+        item = new JMenuItem("Quit");
         item.addActionListener((ActionEvent e) -> System.exit(0));
         menu.add(item);
         mb.add(menu);
@@ -129,6 +156,221 @@ public class View
         return mb;
     }
 
+    /**
+     * Shows the bandwidth limits and applies the changed ones immediately, also to a running download.
+     * A batch crawl only follows the limit of all downloads from here; its sites take their crawl and host limits
+     * from the jget.bandwidth system properties, see BatchCrawler.
+     * @param panel Parent of the dialog.
+     */
+    private static void showBandwidthDialog(JPanel panel)
+    {
+        BandwidthLimiter limiter = Downloader.getBandwidthLimiter();
+        JTextField globalField = new JTextField(BandwidthLimiter.formatRate(BandwidthLimiter.getGlobalLimit()), 8);
+        JTextField crawlField = new JTextField(BandwidthLimiter.formatRate(limiter.getCrawlLimit()), 8);
+        JTextField hostField = new JTextField(BandwidthLimiter.formatRate(limiter.getHostLimit()), 8);
+
+        JPanel fields = new JPanel(new GridLayout(0, 2, 5, 5));
+        fields.add(new JLabel("All downloads:"));
+        fields.add(globalField);
+        fields.add(new JLabel("This crawl:"));
+        fields.add(crawlField);
+        fields.add(new JLabel("Each host:"));
+        fields.add(hostField);
+        fields.add(new JLabel("Bytes per second, e.g. 512K or 2M."));
+        fields.add(new JLabel("Empty for no limit."));
+        fields.add(new JLabel("Batch crawls only follow"));
+        fields.add(new JLabel("the limit of all downloads."));
+
+        if (JOptionPane.showConfirmDialog(panel, fields, "Bandwidth limits", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION)
+        {
+            return;
+        }
+        try
+        {
+            long global = BandwidthLimiter.parseRate(globalField.getText());
+            long crawl = BandwidthLimiter.parseRate(crawlField.getText());
+            long host = BandwidthLimiter.parseRate(hostField.getText());
+            BandwidthLimiter.setGlobalLimit(global);
+            Downloader.setBandwidthLimits(crawl, host);
+        }
+        catch (NumberFormatException e)
+        {
+            JOptionPane.showMessageDialog(panel, "Invalid bandwidth limit: " + e.getMessage(), "Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Lets the user choose a download root and serves it over HTTP until the shown dialog is closed.
+     * @param panel Parent of the dialogs.
+     */
+    private static void serveDownload(JPanel panel)
+    {
+        JFileChooser fc = new JFileChooser();
+        fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (fc.showOpenDialog(panel) != JFileChooser.APPROVE_OPTION)
+        {
+            return;
+        }
+
+        MirrorServer server;
+        try
+        {
+            // Port 0 lets the system pick a free port if the default one is taken.
+            server = startMirrorServer(fc.getSelectedFile(), MirrorServer.DEFAULT_PORT);
+            if (server == null)
+            {
+                server = startMirrorServer(fc.getSelectedFile(), 0);
+            }
+        }
+        catch (IOException e)
+        {
+            JOptionPane.showMessageDialog(panel, "Unable to serve the download: " + e.getMessage(), "Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        String address = "http://127.0.0.1:" + server.getPort() + "/";
+        JOptionPane.showMessageDialog(panel, "Serving " + fc.getSelectedFile() + " at\n" + address
+                + "\nClose this dialog to stop the server.", "Serving download", JOptionPane.INFORMATION_MESSAGE);
+        server.stop();
+    }
+
+    /**
+     * Lets the user choose a seed file and a batch directory and crawls all sites of the seed file in the background.
+     * The summary of the batch is shown once it finishes. Refused while another crawl is running.
+     * @param panel         Parent of the dialogs.
+     * @param cancelItem    Menu item cancelling the batch; enabled while it runs.
+     */
+    private static void startBatchCrawl(JPanel panel, JMenuItem cancelItem)
+    {
+        if (crawlRunning.get())
+        {
+            JOptionPane.showMessageDialog(panel, CRAWL_RUNNING_MESSAGE, "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        JFileChooser fc = new JFileChooser();
+        fc.setDialogTitle("Seed file");
+        if (fc.showOpenDialog(panel) != JFileChooser.APPROVE_OPTION)
+        {
+            return;
+        }
+        File seedFile = fc.getSelectedFile();
+        fc = new JFileChooser();
+        fc.setDialogTitle("Batch directory");
+        fc.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (fc.showOpenDialog(panel) != JFileChooser.APPROVE_OPTION)
+        {
+            return;
+        }
+
+        BatchCrawler batch;
+        try
+        {
+            batch = new BatchCrawler(BatchCrawler.readSeedFile(seedFile.toPath(), fc.getSelectedFile().toPath()),
+                    fc.getSelectedFile().toPath(), BatchCrawler.DEFAULT_WORKERS);
+        }
+        catch (IOException | IllegalArgumentException e)
+        {
+            JOptionPane.showMessageDialog(panel, "Unable to read the seed file: " + e.getMessage(), "Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        // Checked again, since a download may have been started while the file choosers were open.
+        if (! crawlRunning.compareAndSet(false, true))
+        {
+            JOptionPane.showMessageDialog(panel, CRAWL_RUNNING_MESSAGE, "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        SwingWorker<String, Object> sw = new SwingWorker<>() {
+            // Claimed by doInBackground, or by done() if the batch is cancelled before it starts.
+            private final AtomicBoolean started = new AtomicBoolean(false);
+
+            @Override
+            public String doInBackground() throws Exception
+            {
+                if (! started.compareAndSet(false, true))
+                {
+                    return null;
+                }
+                long startNanos = System.nanoTime();
+                try
+                {
+                    batch.run();
+                }
+                finally
+                {
+                    // done() already runs when the batch is cancelled, but its crawl log is only closed now.
+                    crawlRunning.set(false);
+                }
+                return batch.summary((System.nanoTime() - startNanos) / 1e9);
+            }
+
+            @Override
+            protected void done()
+            {
+                cancelItem.setEnabled(false);
+                String summary;
+                try
+                {
+                    summary = get();
+                }
+                catch (CancellationException e)
+                {
+                    if (started.compareAndSet(false, true))
+                    {
+                        crawlRunning.set(false);
+                    }
+                    JOptionPane.showMessageDialog(panel, "The batch crawl stops after the downloads in progress.",
+                            "Batch crawl cancelled", JOptionPane.INFORMATION_MESSAGE);
+                    return;
+                }
+                catch (Exception e)
+                {
+                    summary = "Batch crawl failed: " + e.getMessage();
+                }
+                JTextArea text = new JTextArea(summary);
+                text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+                text.setEditable(false);
+                JScrollPane scrollPane = new JScrollPane(text);
+                scrollPane.setPreferredSize(new Dimension(800, 300));
+                JOptionPane.showMessageDialog(panel, scrollPane, "Batch crawl finished",
+                        JOptionPane.INFORMATION_MESSAGE);
+            }
+        };
+        // Cancelling interrupts the batch, which stops its workers after their current step and closes the sites.
+        for (ActionListener listener : cancelItem.getActionListeners())
+        {
+            cancelItem.removeActionListener(listener);
+        }
+        cancelItem.addActionListener((ActionEvent e) -> sw.cancel(true));
+        cancelItem.setEnabled(true);
+        sw.execute();
+    }
+
+    /**
+     * Starts a MirrorServer on the loopback interface.
+     * @param dir   Download root to serve.
+     * @param port  Port to listen on, 0 for any free port.
+     * @return      The running server, or null if the port is taken.
+     * @throws IOException If the download root can not be read.
+     */
+    private static MirrorServer startMirrorServer(File dir, int port) throws IOException
+    {
+        MirrorServer server = new MirrorServer(dir.toPath(), new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        try
+        {
+            server.start();
+        }
+        catch (BindException e)
+        {
+            return null;
+        }
+        return server;
+    }
+
     /**
      * Displays a file chooser dialog.
      * @return User selected directory in which JSoup will operate in.
@@ -145,11 +387,16 @@ public class View
     }
 
     /**
-     * Starts the downloading process via a SwingWorker.
+     * Starts the downloading process via a SwingWorker. Refused while a batch crawl is running.
      * @param saveDirectory Root of the directory in which JGet operates; Directory in which the downloaded files will be placed.
      */
     private void startDownload(File saveDirectory)
     {
+        if (! crawlRunning.compareAndSet(false, true))
+        {
+            showErrorPane(CRAWL_RUNNING_MESSAGE);
+            return;
+        }
         SwingWorker<String, Object> sw = new SwingWorker<>() {
             @Override
             public String doInBackground()
@@ -158,8 +405,14 @@ public class View
                 startButton.setEnabled(false);
                 panel.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 
-                Downloader.runDownload(input.getText(), saveDirectory.getAbsolutePath());
-                return null;
+                try
+                {
+                    return Downloader.runDownload(input.getText(), saveDirectory.getAbsolutePath());
+                }
+                finally
+                {
+                    crawlRunning.set(false);
+                }
             }
 
             @Override
@@ -170,6 +423,21 @@ public class View
                 setLabelDefaults();
 
                 timer.stop();
+
+                if (Downloader.getBudget().getExhaustedReason() != null)
+                {
+                    String report;
+                    try
+                    {
+                        report = get();
+                    }
+                    catch (Exception e)
+                    {
+                        report = Downloader.getBudget().report();
+                    }
+                    JOptionPane.showMessageDialog(panel, report, "Crawl budget exhausted",
+                            JOptionPane.INFORMATION_MESSAGE);
+                }
             }
         };
 
@@ -183,6 +451,54 @@ public class View
         sw.execute();
     }
 
+    /**
+     * Starts a link check via a SwingWorker. Nothing but the report is saved.
+     * @param saveDirectory Directory in which the report is placed.
+     */
+    private void startLinkCheck(File saveDirectory)
+    {
+        LinkChecker checker = new LinkChecker(input.getText(), LinkChecker.DEFAULT_CONCURRENCY);
+        SwingWorker<String, Object> sw = new SwingWorker<>() {
+            @Override
+            public String doInBackground() throws Exception
+            {
+                return checker.run(saveDirectory.getAbsolutePath()).toString();
+            }
+
+            @Override
+            protected void done()
+            {
+                startButton.setEnabled(true);
+                panel.setCursor(Cursor.getDefaultCursor());
+                setLabelDefaults();
+                timer.stop();
+
+                try
+                {
+                    JOptionPane.showMessageDialog(panel, checker.summary() + "\nReport: " + get(), "Link check finished",
+                            JOptionPane.INFORMATION_MESSAGE);
+                }
+                catch (Exception e)
+                {
+                    showErrorPane("Unable to write the link report: " + e.getMessage());
+                }
+            }
+        };
+
+        downloadLabel.setText(LINKCHECK_RUNNING_MESSAGE);
+        startButton.setText(LINKCHECK_RUNNING_MESSAGE);
+        startButton.setEnabled(false);
+        panel.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+
+        // Updates the labels
+        timer = new Timer(100, e1 -> {
+            numDownloadedLabel.setText(String.valueOf(checker.getNumChecked()));
+            toBeDownloadedLabel.setText(String.valueOf(checker.getNumPending()));
+        });
+        timer.start();
+        sw.execute();
+    }
+
     /**
      * Sets label texts to default values.
      */
@@ -212,7 +528,7 @@ public class View
         JFrame frame = new JFrame("JGet");
 
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.setPreferredSize(new Dimension(600, 190));
+        frame.setPreferredSize(new Dimension(600, 215));
         Component panel = (new View()).createComponents();
 
         frame.getContentPane().add(panel);
@@ -253,7 +569,14 @@ public class View
         File selectedDir = chooseSaveDirectory();
         if (selectedDir != null)
         {
-            startDownload(selectedDir);
+            if (linkCheckBox.isSelected())
+            {
+                startLinkCheck(selectedDir);
+            }
+            else
+            {
+                startDownload(selectedDir);
+            }
         }
     }
 }
@@ -0,0 +1,368 @@
+package com.veedlaw;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Locates archived HTTP responses in uncompressed WARC files.
+ * Only the record headers are read when the index is built; each entry points at the payload of a response inside
+ * its WARC file, so the payload can later be sent straight from the file.
+ * Compressed (.warc.gz) files are not supported.
+ */
+public class WarcIndex
+{
+    public static final String WARC_SUFFIX = ".warc";
+
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /**
+     * An archived response.
+     */
+    public static final class Record
+    {
+        private final Path file;
+        private final long offset;
+        private final long length;
+        private final int status;
+        private final String reason;
+        private final Map<String, String> headers;
+
+        private Record(Path file, long offset, long length, int status, String reason, Map<String, String> headers)
+        {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.status = status;
+            this.reason = reason;
+            this.headers = headers;
+        }
+
+        /**
+         * @return WARC file containing the response.
+         */
+        public Path getFile()
+        {
+            return file;
+        }
+
+        /**
+         * @return Position of the payload in the WARC file.
+         */
+        public long getOffset()
+        {
+            return offset;
+        }
+
+        /**
+         * @return Length of the payload as stored, which may still have a transfer-encoding applied.
+         */
+        public long getLength()
+        {
+            return length;
+        }
+
+        /**
+         * @return HTTP status code of the archived response.
+         */
+        public int getStatus()
+        {
+            return status;
+        }
+
+        /**
+         * @return Reason phrase of the archived response.
+         */
+        public String getReason()
+        {
+            return reason;
+        }
+
+        /**
+         * @param name  Header name in lower case.
+         * @return      Value of the header of the archived response, or null if it is missing.
+         */
+        public String getHeader(String name)
+        {
+            return headers.get(name);
+        }
+    }
+
+    // Keyed by canonical target addresses; a later capture of the same address replaces an earlier one.
+    private final Map<String, Record> records = new HashMap<>();
+
+    /**
+     * Builds an index of all WARC files in a directory and its immediate subdirectories.
+     * Files which are not valid WARC files are skipped.
+     * @param root  Directory to search.
+     * @return      The index, empty if no WARC file was found.
+     * @throws IOException If the directory can not be listed.
+     */
+    public static WarcIndex load(Path root) throws IOException
+    {
+        WarcIndex index = new WarcIndex();
+        List<Path> files;
+        try (Stream<Path> paths = Files.walk(root, 2))
+        {
+            files = paths.filter(path -> path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(WARC_SUFFIX))
+                    .filter(Files::isRegularFile)
+                    .collect(Collectors.toList());
+        }
+        for (Path file : files)
+        {
+            try
+            {
+                index.add(file);
+            }
+            catch (IOException e)
+            {
+                System.err.println("Skipping " + file + ": " + e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Looks up an archived response.
+     * @param address   Target address of the response.
+     * @return          The response, or null if it is not archived.
+     */
+    public Record lookup(String address)
+    {
+        return records.get(DownloaderUtilities.canonicalizeURL(address));
+    }
+
+    /**
+     * @return True if no response is archived.
+     */
+    public boolean isEmpty()
+    {
+        return records.isEmpty();
+    }
+
+    /**
+     * @return Number of archived responses.
+     */
+    public int size()
+    {
+        return records.size();
+    }
+
+    /**
+     * Reads the record headers of a WARC file and indexes its responses.
+     * @param file  An uncompressed WARC file.
+     * @throws IOException If the file can not be read or is not a WARC file.
+     */
+    private void add(Path file) throws IOException
+    {
+        try (CountingInputStream in = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16)))
+        {
+            String line;
+            while ((line = in.readLine()) != null)
+            {
+                if (line.isEmpty())
+                {
+                    continue; // Records are separated by two empty lines
+                }
+                if (!line.startsWith("WARC/"))
+                {
+                    throw new IOException("Not a WARC record at byte " + in.getCount());
+                }
+                Map<String, String> warcHeaders = readHeaders(in);
+                String contentLength = warcHeaders.get("content-length");
+                if (contentLength == null)
+                {
+                    throw new IOException("WARC record without Content-Length at byte " + in.getCount());
+                }
+                long blockLength = Long.parseLong(contentLength.trim());
+                long blockStart = in.getCount();
+
+                String uri = warcHeaders.get("warc-target-uri");
+                String type = warcHeaders.get("content-type");
+                if ("response".equals(warcHeaders.get("warc-type")) && uri != null && type != null
+                        && type.startsWith("application/http"))
+                {
+                    indexResponse(file, in, stripAngleBrackets(uri), blockStart, blockLength);
+                }
+                in.skipTo(blockStart + blockLength);
+            }
+        }
+    }
+
+    /**
+     * Reads the HTTP status line and headers at the start of a response record and indexes its payload.
+     * @param file          WARC file containing the record.
+     * @param in            Stream positioned at the start of the record block.
+     * @param uri           Target address of the record.
+     * @param blockStart    Position of the record block in the file.
+     * @param blockLength   Length of the record block.
+     * @throws IOException If the file can not be read.
+     */
+    private void indexResponse(Path file, CountingInputStream in, String uri, long blockStart, long blockLength)
+            throws IOException
+    {
+        String statusLine = in.readLine();
+        String[] parts = statusLine == null ? new String[0] : statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/"))
+        {
+            return;
+        }
+        int status;
+        try
+        {
+            status = Integer.parseInt(parts[1]);
+        }
+        catch (NumberFormatException e)
+        {
+            return;
+        }
+        Map<String, String> httpHeaders = readHeaders(in);
+        long payloadOffset = in.getCount();
+        if (payloadOffset > blockStart + blockLength)
+        {
+            return; // The headers overran the block, the record is broken
+        }
+        records.put(DownloaderUtilities.canonicalizeURL(uri),
+                new Record(file, payloadOffset, blockStart + blockLength - payloadOffset, status,
+                        parts.length == 3 ? parts[2] : "", httpHeaders));
+    }
+
+    /**
+     * Reads header lines up to and including the empty line that ends them.
+     * @param in    Stream positioned at the first header line.
+     * @return      Header values keyed by lower-case names.
+     * @throws IOException If the stream ends before the headers do.
+     */
+    private static Map<String, String> readHeaders(CountingInputStream in) throws IOException
+    {
+        Map<String, String> headers = new LinkedHashMap<>();
+        String line;
+        while ((line = in.readLine()) != null && !line.isEmpty())
+        {
+            int colon = line.indexOf(':');
+            if (colon > 0)
+            {
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+            }
+        }
+        if (line == null)
+        {
+            throw new EOFException("Unexpected end of headers");
+        }
+        return headers;
+    }
+
+    /**
+     * WARC 1.0 allows the target URI to be enclosed in angle brackets.
+     * @param uri   Value of the WARC-Target-URI header.
+     * @return      The URI without brackets.
+     */
+    private static String stripAngleBrackets(String uri)
+    {
+        if (uri.startsWith("<") && uri.endsWith(">"))
+        {
+            return uri.substring(1, uri.length() - 1);
+        }
+        return uri;
+    }
+
+    /**
+     * An input stream that counts its position and reads ISO-8859-1 lines, as needed to locate payloads.
+     */
+    private static final class CountingInputStream extends InputStream
+    {
+        private final InputStream in;
+        private long count = 0;
+
+        private CountingInputStream(InputStream in)
+        {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = in.read();
+            if (b != -1)
+            {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            in.close();
+        }
+
+        /**
+         * @return Number of bytes read or skipped so far.
+         */
+        private long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Reads a line terminated by LF or CRLF.
+         * @return The line without its terminator, or null at the end of the stream.
+         * @throws IOException If the line is too long.
+         */
+        private String readLine() throws IOException
+        {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = read()) != -1 && b != '\n')
+            {
+                if (line.length() == MAX_LINE_LENGTH)
+                {
+                    throw new IOException("Header line too long at byte " + count);
+                }
+                line.append((char) b);
+            }
+            if (b == -1 && line.length() == 0)
+            {
+                return null;
+            }
+            int length = line.length();
+            if (length > 0 && line.charAt(length - 1) == '\r')
+            {
+                line.setLength(length - 1);
+            }
+            return line.toString(); // Every byte became the char of the same value, as in ISO-8859-1
+        }
+
+        /**
+         * Skips forward to a position.
+         * @param position  Position to skip to, not before the current one.
+         * @throws IOException If the stream ends before the position.
+         */
+        private void skipTo(long position) throws IOException
+        {
+            while (count < position)
+            {
+                long skipped = in.skip(position - count);
+                if (skipped <= 0)
+                {
+                    if (in.read() == -1)
+                    {
+                        throw new EOFException("WARC record truncated");
+                    }
+                    skipped = 1;
+                }
+                count += skipped;
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.veedlaw;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs a distributed crawl of a local site with a coordinator in the test JVM and every worker in a JVM of its own,
+ * all talking over loopback, as the cluster would run on several machines.
+ */
+public class ClusterLoopbackTest
+{
+    private static final int NUM_NODES = 3;
+    private static final int NUM_PAGES = 40;
+    private static final int NUM_IMAGES = 4;
+    private static final long TIMEOUT_SECONDS = 120;
+
+    // Addresses the crawl logs record as saved, as HTML pages or other files
+    private static final Pattern SAVED_RECORD = Pattern.compile("\"event\":\"(?:HTML|FILE)\",\"url\":\"([^\"]*)\"");
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Every address of the site must be downloaded by exactly one worker, and the coordinator must detect the end
+     * of the crawl and stop the workers.
+     * @throws Exception If the fixture or the cluster can not be started.
+     */
+    @Test
+    public void everyAddressIsDownloadedOnceAndTerminationIsDetected() throws Exception
+    {
+        HttpServer site = startSite();
+        String seed = "http://127.0.0.1:" + site.getAddress().getPort() + "/";
+        int coordinatorPort = freePort();
+        ClusterCoordinator coordinator = new ClusterCoordinator(coordinatorPort, NUM_NODES);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<Process> workers = new ArrayList<>();
+        try
+        {
+            Future<Integer> total = executor.submit(coordinator::run);
+            StringBuilder nodeList = new StringBuilder();
+            for (int i = 0; i < NUM_NODES; i++)
+            {
+                nodeList.append(i == 0 ? "" : ",").append("127.0.0.1:").append(freePort());
+            }
+            for (int i = 0; i < NUM_NODES; i++)
+            {
+                workers.add(startWorker(i, nodeList.toString(), "127.0.0.1:" + coordinatorPort, seed));
+            }
+
+            int downloaded = total.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            for (int i = 0; i < NUM_NODES; i++)
+            {
+                assertTrue(workers.get(i).waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS), "node " + i + " did not stop");
+                assertEquals(0, workers.get(i).exitValue(),
+                        "node " + i + " failed, see " + dir.resolve("node" + i + ".log"));
+            }
+
+            Map<String, Integer> saved = readSavedAddresses(dir.resolve("127.0.0.1:" + site.getAddress().getPort()));
+            List<String> expected = expectedAddresses(seed);
+            for (String address : expected)
+            {
+                int times = saved.getOrDefault(address, 0);
+                assertEquals(1, times, "times " + address + " was downloaded");
+            }
+            assertEquals(expected.size(), saved.size(), "downloaded addresses " + saved.keySet());
+            assertEquals(expected.size(), downloaded, "files reported to the coordinator");
+        }
+        finally
+        {
+            for (Process worker : workers)
+            {
+                worker.destroyForcibly();
+            }
+            executor.shutdownNow();
+            site.stop(0);
+        }
+    }
+
+    /**
+     * Starts a site of pages linking to each other across the partitions of the cluster, sharing a stylesheet and
+     * a few images.
+     * @return The started server.
+     * @throws IOException If the server can not be started.
+     */
+    private static HttpServer startSite() throws IOException
+    {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange ->
+        {
+            String path = exchange.getRequestURI().getPath();
+            if (path.equals("/"))
+            {
+                respond(exchange, 200, "text/html", page("<a href=\"page0.html\">start</a>"));
+            }
+            else if (path.matches("/page\\d+\\.html") && pageNumber(path) < NUM_PAGES)
+            {
+                int i = pageNumber(path);
+                respond(exchange, 200, "text/html", page(
+                        "<link rel=\"stylesheet\" href=\"style.css\">"
+                        + "<img src=\"img" + (i % NUM_IMAGES) + ".png\">"
+                        + "<a href=\"page" + (2 * i + 1) % NUM_PAGES + ".html\">next</a>"
+                        + "<a href=\"page" + (2 * i + 2) % NUM_PAGES + ".html\">other</a>"));
+            }
+            else if (path.equals("/style.css"))
+            {
+                respond(exchange, 200, "text/css", "body { color: black; }");
+            }
+            else if (path.matches("/img[0-" + (NUM_IMAGES - 1) + "]\\.png"))
+            {
+                respond(exchange, 200, "image/png", "not really a png " + path);
+            }
+            else
+            {
+                respond(exchange, 404, "text/plain", "not found");
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * @param seed  Address of the site.
+     * @return      Every address of the site reachable from its root.
+     */
+    private static List<String> expectedAddresses(String seed)
+    {
+        List<String> addresses = new ArrayList<>();
+        addresses.add(seed);
+        for (int i = 0; i < NUM_PAGES; i++)
+        {
+            addresses.add(seed + "page" + i + ".html");
+        }
+        addresses.add(seed + "style.css");
+        for (int i = 0; i < NUM_IMAGES; i++)
+        {
+            addresses.add(seed + "img" + i + ".png");
+        }
+        return addresses;
+    }
+
+    /**
+     * Counts how many times the crawl logs of all the workers record each address as saved.
+     * @param logDir    Directory holding the crawl logs of the workers.
+     * @return          Number of records of every saved address.
+     * @throws IOException If a log can not be read.
+     */
+    private static Map<String, Integer> readSavedAddresses(Path logDir) throws IOException
+    {
+        Map<String, Integer> saved = new HashMap<>();
+        for (int i = 0; i < NUM_NODES; i++)
+        {
+            try (Stream<String> lines = Files.lines(logDir.resolve("crawl-log-" + i + ".jsonl")))
+            {
+                lines.forEach(line ->
+                {
+                    Matcher matcher = SAVED_RECORD.matcher(line);
+                    if (matcher.find())
+                    {
+                        saved.merge(matcher.group(1), 1, Integer::sum);
+                    }
+                });
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * Starts a worker of the cluster in a JVM of its own.
+     * @param nodeId        Number of the worker.
+     * @param nodeList      Listening addresses of all the workers.
+     * @param coordinator   Address of the coordinator.
+     * @param seed          Seed address of the crawl.
+     * @return              The worker process.
+     * @throws IOException If the process can not be started.
+     */
+    private Process startWorker(int nodeId, String nodeList, String coordinator, String seed) throws IOException
+    {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        // The generated pages are all alike, so the trap detector would stop following their links.
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                "-Djget.trap.minPages=" + Integer.MAX_VALUE, ClusterNode.class.getName(),
+                String.valueOf(nodeId), nodeList, coordinator, seed, dir.toString())
+                .redirectErrorStream(true)
+                .redirectOutput(dir.resolve("node" + nodeId + ".log").toFile())
+                .start();
+    }
+
+    /**
+     * @return A port which was free a moment ago.
+     * @throws IOException If no port can be bound.
+     */
+    private static int freePort() throws IOException
+    {
+        try (ServerSocket socket = new ServerSocket(0))
+        {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * @param path  Path of a page, such as /page7.html.
+     * @return      Number of the page.
+     */
+    private static int pageNumber(String path)
+    {
+        return Integer.parseInt(path.substring("/page".length(), path.length() - ".html".length()));
+    }
+
+    /**
+     * @param body  Contents of the body element.
+     * @return      An HTML document.
+     */
+    private static String page(String body)
+    {
+        return "<!DOCTYPE html><html><head><title>page</title></head><body>" + body + "</body></html>";
+    }
+
+    /**
+     * Sends a complete response.
+     * @param exchange      The exchange to answer.
+     * @param status        HTTP status code.
+     * @param contentType   Content-Type of the body.
+     * @param body          The body.
+     * @throws IOException If the response can not be sent.
+     */
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException
+    {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody())
+        {
+            out.write(bytes);
+        }
+    }
+}
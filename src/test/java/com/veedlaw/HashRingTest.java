@@ -0,0 +1,120 @@
+package com.veedlaw;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the assignment of addresses to the nodes of a cluster.
+ * Nodes are numbered from 0, so a node joins the ring as the highest number and the highest number leaves it.
+ */
+public class HashRingTest
+{
+    private static final int NUM_KEYS = 20000;
+
+    /**
+     * @param i Index of a key.
+     * @return  An address used as a key.
+     */
+    private static String key(int i)
+    {
+        return "http://example.com/dir" + (i % 37) + "/page" + i + ".html";
+    }
+
+    /**
+     * Rings of the same size must agree on every owner, since every node builds its own ring.
+     */
+    @Test
+    public void ownerIsDeterministicAndInRange()
+    {
+        HashRing ring = new HashRing(5);
+        HashRing sameRing = new HashRing(5);
+        for (int i = 0; i < NUM_KEYS; i++)
+        {
+            int owner = ring.owner(key(i));
+            assertTrue(owner >= 0 && owner < 5, "owner " + owner + " out of range");
+            assertEquals(owner, sameRing.owner(key(i)), "owner of " + key(i) + " differs between equal rings");
+        }
+    }
+
+    /**
+     * A node joining the cluster may only take keys over; no key may move between the nodes already there.
+     */
+    @Test
+    public void joiningNodeOnlyTakesOverKeys()
+    {
+        for (int numNodes = 1; numNodes < 8; numNodes++)
+        {
+            HashRing before = new HashRing(numNodes);
+            HashRing after = new HashRing(numNodes + 1);
+            int moved = 0;
+            for (int i = 0; i < NUM_KEYS; i++)
+            {
+                int oldOwner = before.owner(key(i));
+                int newOwner = after.owner(key(i));
+                if (oldOwner != newOwner)
+                {
+                    assertEquals(numNodes, newOwner, key(i) + " moved between two of the old nodes");
+                    moved++;
+                }
+            }
+            // The new node should take over about its fair share of the keys.
+            double share = (double) moved / NUM_KEYS;
+            double fairShare = 1.0 / (numNodes + 1);
+            assertTrue(share > fairShare * 0.5 && share < fairShare * 1.5,
+                    "node " + numNodes + " took over " + share + " of the keys, expected about " + fairShare);
+        }
+    }
+
+    /**
+     * A node leaving the cluster may only give its own keys up; the other nodes keep theirs.
+     */
+    @Test
+    public void leavingNodeOnlyGivesUpItsKeys()
+    {
+        for (int numNodes = 2; numNodes <= 8; numNodes++)
+        {
+            HashRing before = new HashRing(numNodes);
+            HashRing after = new HashRing(numNodes - 1);
+            for (int i = 0; i < NUM_KEYS; i++)
+            {
+                int oldOwner = before.owner(key(i));
+                if (oldOwner != numNodes - 1)
+                {
+                    assertEquals(oldOwner, after.owner(key(i)), key(i) + " moved although its owner stayed");
+                }
+            }
+        }
+    }
+
+    /**
+     * Every node should own about the same number of keys.
+     */
+    @Test
+    public void keysAreSpreadEvenly()
+    {
+        int numNodes = 4;
+        HashRing ring = new HashRing(numNodes);
+        int[] counts = new int[numNodes];
+        for (int i = 0; i < NUM_KEYS; i++)
+        {
+            counts[ring.owner(key(i))]++;
+        }
+        for (int node = 0; node < numNodes; node++)
+        {
+            assertTrue(counts[node] > NUM_KEYS / numNodes / 2 && counts[node] < NUM_KEYS / numNodes * 3 / 2,
+                    "node " + node + " owns " + counts[node] + " of " + NUM_KEYS + " keys");
+        }
+    }
+
+    /**
+     * A ring needs at least one node.
+     */
+    @Test
+    public void emptyClusterIsRejected()
+    {
+        assertThrows(IllegalArgumentException.class, () -> new HashRing(0));
+    }
+}
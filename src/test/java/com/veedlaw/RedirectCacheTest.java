@@ -0,0 +1,78 @@
+package com.veedlaw;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the resolution of known redirect chains.
+ */
+public class RedirectCacheTest
+{
+    /**
+     * Chains are followed to their end; addresses not known to redirect resolve to themselves.
+     */
+    @Test
+    public void resolvesChains()
+    {
+        RedirectCache cache = new RedirectCache();
+        cache.record("http://a/1", "http://a/2");
+        cache.record("http://a/2", "http://a/3");
+        assertEquals("http://a/3", cache.resolve("http://a/1"));
+        assertEquals("http://a/3", cache.resolve("http://a/2"));
+        assertEquals("http://a/3", cache.resolve("http://a/3"));
+        assertTrue(cache.isRedirect("http://a/1"));
+        assertFalse(cache.isRedirect("http://a/3"));
+    }
+
+    /**
+     * A loop back to the start ends at the last address before it; a redirect to itself is ignored.
+     */
+    @Test
+    public void stopsAtLoops()
+    {
+        RedirectCache cache = new RedirectCache();
+        cache.record("http://a/1", "http://a/2");
+        cache.record("http://a/2", "http://a/1");
+        assertEquals("http://a/2", cache.resolve("http://a/1"));
+        cache.record("http://a/self", "http://a/self");
+        assertFalse(cache.isRedirect("http://a/self"));
+    }
+
+    /**
+     * Longer loops which do not return to the start end after the redirect limit.
+     */
+    @Test
+    public void stopsAfterRedirectLimit()
+    {
+        RedirectCache cache = new RedirectCache();
+        cache.record("http://a/start", "http://a/1");
+        cache.record("http://a/1", "http://a/2");
+        cache.record("http://a/2", "http://a/1");
+        String end = cache.resolve("http://a/start");
+        assertTrue(end.equals("http://a/1") || end.equals("http://a/2"), end);
+    }
+
+    /**
+     * Every crawl has its own cache, so redirects seen by one crawl do not rewrite the links of another.
+     */
+    @Test
+    public void crawlsDoNotShareRedirects()
+    {
+        Crawl first = newCrawl();
+        Crawl second = newCrawl();
+        first.redirects.record("http://a/old", "http://a/new");
+        assertEquals("http://a/new", first.redirects.resolve("http://a/old"));
+        assertEquals("http://a/old", second.redirects.resolve("http://a/old"));
+    }
+
+    /**
+     * @return A crawl which is never started.
+     */
+    private static Crawl newCrawl()
+    {
+        return new Crawl("http://a/", ".", Crawl.Scope.PREFIX, null, new CrawlBudget(), BandwidthLimiter.fromSystemProperties());
+    }
+}
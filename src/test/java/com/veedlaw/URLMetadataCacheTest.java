@@ -0,0 +1,92 @@
+package com.veedlaw;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the bounded URL metadata cache and its statistics.
+ */
+public class URLMetadataCacheTest
+{
+    /**
+     * The cache is shared by the whole process, so every test starts from an empty one.
+     */
+    @BeforeEach
+    public void clearCache()
+    {
+        URLMetadataCache.setMaxEntries(URLMetadataCache.DEFAULT_MAX_ENTRIES);
+        URLMetadataCache.clear();
+    }
+
+    /**
+     * Restores the default limit for the tests which follow.
+     */
+    @AfterEach
+    public void restoreLimit()
+    {
+        clearCache();
+    }
+
+    /**
+     * Lookups alone are not counted; only the outcomes reported by the callers are.
+     */
+    @Test
+    public void onlyReportedLookupsAreCounted()
+    {
+        URLMetadataCache.putDirectory("http://a/dir", true);
+        assertNotNull(URLMetadataCache.get("http://a/dir"));
+        assertNull(URLMetadataCache.get("http://a/none"));
+        assertTrue(URLMetadataCache.report().contains(" 0 hits, 0 misses"), URLMetadataCache.report());
+
+        URLMetadataCache.countLookup(true);
+        URLMetadataCache.countLookup(false);
+        URLMetadataCache.countLookup(false);
+        assertTrue(URLMetadataCache.report().contains(" 1 hits, 2 misses"), URLMetadataCache.report());
+        assertEquals(1.0 / 3, URLMetadataCache.getHitRate(), 1e-9);
+    }
+
+    /**
+     * A known directory flag does not make the response known, and a later response keeps the flag.
+     */
+    @Test
+    public void directoryAndResponseAreKeptApart()
+    {
+        URLMetadataCache.putDirectory("http://a/dir", true);
+        URLMetadataCache.Metadata entry = URLMetadataCache.get("http://a/dir");
+        assertTrue(entry.isDirectoryKnown());
+        assertFalse(entry.isResponseKnown());
+
+        URLMetadataCache.putResponse("http://a/dir", "text/html; charset=utf-8", 200, 10);
+        entry = URLMetadataCache.get("http://a/dir");
+        assertTrue(entry.isResponseKnown());
+        assertTrue(entry.isHTML());
+        assertTrue(entry.isDirectory());
+    }
+
+    /**
+     * Lowering the limit evicts the least recently used entries and counts them.
+     */
+    @Test
+    public void loweringTheLimitEvictsLeastRecentlyUsed()
+    {
+        for (int i = 0; i < 100; i++)
+        {
+            URLMetadataCache.putResponse("http://a/" + i, "text/html", 200, 0);
+        }
+        URLMetadataCache.get("http://a/0"); // Now the most recently used
+        URLMetadataCache.setMaxEntries(10);
+
+        assertTrue(URLMetadataCache.report().startsWith("URL metadata cache: 10 entries"), URLMetadataCache.report());
+        assertTrue(URLMetadataCache.report().endsWith(" 90 evictions"), URLMetadataCache.report());
+        assertNotNull(URLMetadataCache.get("http://a/0"));
+        assertNull(URLMetadataCache.get("http://a/1"));
+        assertNotNull(URLMetadataCache.get("http://a/99"));
+    }
+}